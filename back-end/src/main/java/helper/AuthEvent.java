@@ -5,7 +5,9 @@ import java.util.Arrays;
 public enum AuthEvent {
     REGISTER("auth.register"),
     AUTHENTICATE("auth.authenticate"),
-    VERIFY_TOKEN("auth.verifyToken");
+    VERIFY_TOKEN("auth.verifyToken"),
+    REVOKE("auth.revoke"),
+    REVOKED("auth.revoked");
 
     public String getValue() {
         return value;
@@ -0,0 +1,170 @@
+package helper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static helper.ConstantHolder.DATA;
+import static helper.ConstantHolder.EVENT;
+
+/**
+ * Потоковый разбор входящих кадров в {@link WebSocketCommand}.
+ * Дерево JsonObject не строится: парсер читает дискриминатор event и сразу раскладывает поля data,
+ * неизвестные поля пропускаются, кривой кадр отбрасывается на первом же неподходящем токене
+ */
+public final class CommandDecoder {
+    private static final WebSocketCommand GET_ONLINE_USERS = new WebSocketCommand.GetOnlineUsers();
+    private static final WebSocketCommand GET_UNREAD_COUNTS = new WebSocketCommand.GetUnreadCounts();
+
+    /**
+     * Поля data, которые понимают команды
+     */
+    private enum Field {
+        TOKEN(ConstantHolder.TOKEN),
+        USER("user"),
+        ROOM(ConstantHolder.ROOM),
+        LOGIN(ConstantHolder.LOGIN),
+        PASSWORD(ConstantHolder.PASSWORD),
+        MESSAGE(ConstantHolder.MESSAGE),
+        DATE(ConstantHolder.DATE),
+        BEFORE(ConstantHolder.BEFORE),
+        LIMIT(ConstantHolder.LIMIT),
+        QUERY(ConstantHolder.QUERY),
+        SEQ(ConstantHolder.SEQ);
+
+        private static final Map<String, Field> BY_NAME = Arrays.stream(Field.values())
+            .collect(Collectors.toUnmodifiableMap(x -> x.name, Function.identity()));
+        private static final int COUNT = Field.values().length;
+
+        private final String name;
+
+        Field(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Разбор кадра
+     * @param format согласованный с сокетом формат
+     * @param buffer содержимое кадра
+     * @return команда
+     * @throws DecodeException если кадр не является корректной командой
+     */
+    public static WebSocketCommand decode(WireFormat format, Buffer buffer) {
+        try (JsonParser parser = format.createParser(buffer)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new DecodeException("Frame must be an object");
+            }
+            WebSocketEvent event = null;
+            String[] values = null;
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (EVENT.equals(name)) {
+                    if (value != JsonToken.VALUE_STRING) {
+                        throw new DecodeException("Event must be a string");
+                    }
+                    event = WebSocketEvent.fromString(parser.getText());
+                } else if (DATA.equals(name)) {
+                    values = readData(parser, value);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new DecodeException("Unexpected end of frame");
+            }
+            if (event == null) {
+                throw new DecodeException("Event is missing");
+            }
+            return bind(event, values);
+        } catch (IOException e) {
+            throw new DecodeException("Malformed frame");
+        } catch (IllegalArgumentException e) {
+            throw new DecodeException("Unknown event");
+        }
+    }
+
+    /**
+     * Чтение объекта data, в память попадают только известные строковые поля
+     */
+    private static String[] readData(JsonParser parser, JsonToken start) throws IOException {
+        if (start == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (start != JsonToken.START_OBJECT) {
+            throw new DecodeException("Data must be an object");
+        }
+        String[] values = new String[Field.COUNT];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Field field = Field.BY_NAME.get(parser.currentName());
+            JsonToken value = parser.nextToken();
+            if (field != null && value.isScalarValue()) {
+                values[field.ordinal()] = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private static WebSocketCommand bind(WebSocketEvent event, String[] v) {
+        if (event == WebSocketEvent.GET_ONLINE_USERS) {
+            return GET_ONLINE_USERS;
+        }
+        if (event == WebSocketEvent.GET_UNREAD_COUNTS) {
+            return GET_UNREAD_COUNTS;
+        }
+        if (v == null) {
+            throw new DecodeException("Data is missing");
+        }
+        return switch (event) {
+            case JOIN -> new WebSocketCommand.Join(
+                v[Field.TOKEN.ordinal()], v[Field.USER.ordinal()], v[Field.ROOM.ordinal()]);
+            case MESSAGE -> new WebSocketCommand.Message(
+                v[Field.TOKEN.ordinal()], v[Field.ROOM.ordinal()], v[Field.MESSAGE.ordinal()], v[Field.DATE.ordinal()]);
+            case LOGIN -> new WebSocketCommand.Login(v[Field.LOGIN.ordinal()], v[Field.PASSWORD.ordinal()]);
+            case REGISTER -> new WebSocketCommand.Register(v[Field.LOGIN.ordinal()], v[Field.PASSWORD.ordinal()]);
+            case AUTH -> new WebSocketCommand.Auth(v[Field.TOKEN.ordinal()]);
+            case GET_MESSAGES -> new WebSocketCommand.GetMessages(
+                v[Field.ROOM.ordinal()], number(v[Field.BEFORE.ordinal()]), limit(v[Field.LIMIT.ordinal()]));
+            case SEARCH_MESSAGES -> new WebSocketCommand.SearchMessages(
+                v[Field.TOKEN.ordinal()], v[Field.ROOM.ordinal()], v[Field.QUERY.ordinal()], limit(v[Field.LIMIT.ordinal()]));
+            case LOGOUT -> new WebSocketCommand.Logout(v[Field.TOKEN.ordinal()]);
+            case MARK_READ -> new WebSocketCommand.MarkRead(v[Field.ROOM.ordinal()], number(v[Field.SEQ.ordinal()]));
+            case GET_ONLINE_USERS -> GET_ONLINE_USERS;
+            case GET_UNREAD_COUNTS -> GET_UNREAD_COUNTS;
+        };
+    }
+
+    private static Long number(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            long number = Long.parseLong(value);
+            if (number < 0) {
+                throw new DecodeException("Negative number");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new DecodeException("Invalid number");
+        }
+    }
+
+    private static Integer limit(String value) {
+        Long number = number(value);
+        return number == null ? null : (int) Math.min(number, Integer.MAX_VALUE);
+    }
+
+    private CommandDecoder() {
+    }
+}
@@ -0,0 +1,82 @@
+package helper;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Кольцо консистентного хеширования: каждый узел занимает несколько виртуальных точек,
+ * комната принадлежит первому узлу по часовой стрелке от хеша её имени.
+ * При добавлении или удалении узла меняют владельца только комнаты соседних с ним отрезков
+ */
+public final class ConsistentHashRing {
+    private final int virtualNodes;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final Set<String> nodes = new TreeSet<>();
+
+    /**
+     * @param virtualNodes сколько точек на кольце занимает один узел
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Приведение кольца к заданному составу узлов
+     * @param liveNodes живые узлы
+     * @return true если состав изменился
+     */
+    public boolean update(Collection<String> liveNodes) {
+        if (nodes.size() == liveNodes.size() && nodes.containsAll(liveNodes)) {
+            return false;
+        }
+        for (String node : Set.copyOf(nodes)) {
+            if (!liveNodes.contains(node)) {
+                remove(node);
+            }
+        }
+        for (String node : liveNodes) {
+            if (!nodes.contains(node)) {
+                add(node);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Владелец комнаты или null, если кольцо пустое
+     * @param room идентификатор комнаты
+     */
+    public String owner(String room) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = ring.ceilingEntry(hash(room));
+        return (point != null ? point : ring.firstEntry()).getValue();
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    private void add(String node) {
+        nodes.add(node);
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(node + "#" + i), node);
+        }
+    }
+
+    private void remove(String node) {
+        nodes.remove(node);
+        ring.entrySet().removeIf(point -> point.getValue().equals(node));
+    }
+
+    private static long hash(String key) {
+        return MurmurHash3.hash128x64(key.getBytes(StandardCharsets.UTF_8))[0];
+    }
+}
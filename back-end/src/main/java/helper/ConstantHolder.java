@@ -23,5 +23,19 @@ public class ConstantHolder {
     public static final String REGISTER = "register";
     public static final String DATA = "data";
     public static final String ONLINE_USERS = "onlineUsers";
+    public static final String REDIS_PING = "redis.ping";
+    public static final String APP_STATE = "app.state";
+    public static final String READY = "ready";
+    public static final String BEFORE = "before";
+    public static final String LIMIT = "limit";
+    public static final String POSITION = "position";
+    public static final String QUERY = "query";
+    public static final String PARTIAL = "partial";
+    public static final String SEQ = "seq";
+    public static final String COUNTS = "counts";
+    public static final String ENTRY = "entry";
+    public static final String ENTRIES = "entries";
+    public static final String REVOKED = "revoked";
+    public static final String TTL = "ttl";
 
 }
@@ -0,0 +1,64 @@
+package helper;
+
+/**
+ * Порядковые номера сообщений комнаты. Номер выдаётся в Редисе тем же скриптом, что пишет сообщение в историю,
+ * поэтому порядок в списке комнаты совпадает с порядком номеров, и последние N элементов списка это последние N номеров
+ */
+public final class MessageSequence {
+    public static final String SEQ = "seq";
+
+    /**
+     * KEYS[1] - список истории и канал комнаты, KEYS[2] - счётчик номеров, KEYS[3] - очередь комнат на перенос истории на диск,
+     * KEYS[4] - счётчик сообщений, перенесённых на диск,
+     * ARGV[1] - сообщение в виде JSON объекта, ARGV[2] - "1" если сообщение нужно опубликовать в канал комнаты,
+     * ARGV[3] - длина списка, после которой комната ставится в очередь на перенос, 0 если переноса нет.
+     * Возвращает {сообщение с полем seq, позиция сообщения в истории комнаты}
+     */
+    public static final String APPEND_SCRIPT = """
+        local seq = redis.call('INCR', KEYS[2])
+        local msg = string.sub(ARGV[1], 1, -2) .. ',"seq":' .. seq .. '}'
+        local hotLimit = tonumber(ARGV[3])
+        local length = redis.call('RPUSH', KEYS[1], msg)
+        if length > hotLimit and hotLimit > 0 then
+            redis.call('SADD', KEYS[3], KEYS[1])
+        end
+        if ARGV[2] == '1' then
+            redis.call('PUBLISH', KEYS[1], msg)
+        end
+        return {msg, tonumber(redis.call('GET', KEYS[4]) or '0') + length - 1}
+        """;
+
+    private static final String SEQ_FIELD = "\"" + SEQ + "\":";
+
+    /**
+     * Ключ счётчика номеров комнаты
+     * @param room идентификатор комнаты
+     */
+    public static String key(String room) {
+        return "seq:" + room;
+    }
+
+    /**
+     * Номер сообщения без разбора всего JSON, скрипт всегда дописывает поле последним.
+     * Сообщения, записанные до появления номеров, возвращают 0
+     * @param message сообщение в виде JSON строки
+     */
+    public static long of(String message) {
+        int field = message.lastIndexOf(SEQ_FIELD);
+        if (field < 0) {
+            return 0;
+        }
+        long seq = 0;
+        for (int i = field + SEQ_FIELD.length(); i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            seq = seq * 10 + (c - '0');
+        }
+        return seq;
+    }
+
+    private MessageSequence() {
+    }
+}
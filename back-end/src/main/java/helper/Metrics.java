@@ -0,0 +1,76 @@
+package helper;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Простые счётчики приложения, общие для всех вертиклов в JVM. Отдаются наружу через GET /metrics
+ */
+public final class Metrics {
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Summary> SUMMARIES = new ConcurrentHashMap<>();
+
+    /**
+     * Сводка по наблюдаемой величине: количество, сумма и максимум
+     */
+    private static final class Summary {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+        private void record(long value) {
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+    }
+
+    /**
+     * Увеличение счётчика на единицу
+     * @param name имя счётчика
+     */
+    public static void increment(String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * Счётчик по имени, создаётся при первом обращении
+     * @param name имя счётчика
+     */
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, x -> new LongAdder());
+    }
+
+    /**
+     * Запись одного наблюдения, например размера пачки или времени доставки
+     * @param name имя сводки
+     * @param value значение
+     */
+    public static void record(String name, long value) {
+        SUMMARIES.computeIfAbsent(name, x -> new Summary()).record(value);
+    }
+
+    /**
+     * Текущие значения всех счётчиков и сводок
+     */
+    public static JsonObject snapshot() {
+        Map<String, Object> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+        SUMMARIES.forEach((name, summary) -> {
+            long count = summary.count.sum();
+            values.put(name + ".count", count);
+            values.put(name + ".sum", summary.sum.sum());
+            values.put(name + ".max", count > 0 ? summary.max.get() : 0);
+        });
+        return new JsonObject(values);
+    }
+
+    private Metrics() {
+    }
+}
@@ -0,0 +1,117 @@
+package helper;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Склейка сообщений из комнат в один кадр для каждого сокета.
+ * Первое сообщение после тишины уходит сразу и открывает окно, всё что пришло внутри окна
+ * отправляется одним кадром {"event":"batch","messages":[...]} при закрытии окна или при достижении порога.
+ * Окно растёт, пока в нём копятся сообщения, и сжимается, когда комната затихает, но никогда не превышает maxDelay.
+ * Экземпляр не потокобезопасен и должен использоваться только из контекста вертикла, которому принадлежат сокеты
+ */
+public final class OutboundBatcher {
+    public static final String BATCH = "batch";
+
+    private static final long DEFAULT_MIN_DELAY = 2;
+    private static final long DEFAULT_MAX_DELAY = 25;
+    private static final int DEFAULT_MAX_MESSAGES = 64;
+    private static final int DEFAULT_MAX_BYTES = 32 * 1024;
+    private static final long NO_TIMER = -1;
+
+    private final Vertx vertx;
+    private final long minDelay;
+    private final long maxDelay;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final Map<ServerWebSocket, Pending> pending = new HashMap<>();
+
+    /**
+     * Накопленные для одного сокета сообщения и текущее окно
+     */
+    private static final class Pending {
+        private final List<OutboundFrame> messages = new ArrayList<>();
+        private int bytes;
+        private long window;
+        private long timerId = NO_TIMER;
+
+        private Pending(long window) {
+            this.window = window;
+        }
+    }
+
+    /**
+     * @param vertx экземпляр Vert.x
+     * @param config настройки окна: minDelay и maxDelay в миллисекундах, maxMessages и maxBytes для досрочной отправки
+     */
+    public OutboundBatcher(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.minDelay = config.getLong("minDelay", DEFAULT_MIN_DELAY);
+        this.maxDelay = Math.max(minDelay, config.getLong("maxDelay", DEFAULT_MAX_DELAY));
+        this.maxMessages = config.getInteger("maxMessages", DEFAULT_MAX_MESSAGES);
+        this.maxBytes = config.getInteger("maxBytes", DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Постановка сообщения из комнаты в очередь сокета
+     * @param ws сокет соединение
+     * @param message сообщение, общее для всех участников комнаты
+     */
+    public void send(ServerWebSocket ws, OutboundFrame message) {
+        Pending state = pending.computeIfAbsent(ws, x -> new Pending(minDelay));
+        if (state.timerId == NO_TIMER) {
+            write(ws, message);
+            state.timerId = vertx.setTimer(state.window, id -> flush(ws, state));
+            return;
+        }
+        state.messages.add(message);
+        state.bytes += message.json().length();
+        if (state.messages.size() >= maxMessages || state.bytes >= maxBytes) {
+            vertx.cancelTimer(state.timerId);
+            flush(ws, state);
+        }
+    }
+
+    /**
+     * Забыть сокет, вызывается при закрытии соединения
+     * @param ws сокет соединение
+     */
+    public void remove(ServerWebSocket ws) {
+        Pending state = pending.remove(ws);
+        if (state != null && state.timerId != NO_TIMER) {
+            vertx.cancelTimer(state.timerId);
+        }
+    }
+
+    /**
+     * Закрытие окна: отправка накопленного и подстройка размера следующего окна
+     */
+    private void flush(ServerWebSocket ws, Pending state) {
+        int count = state.messages.size();
+        if (count == 0) {
+            state.window = Math.max(minDelay, state.window / 2);
+            state.timerId = NO_TIMER;
+            return;
+        }
+        write(ws, count == 1 ? state.messages.get(0) : OutboundFrame.batch(state.messages));
+        state.messages.clear();
+        state.bytes = 0;
+        state.window = count > 1 ? Math.min(maxDelay, state.window * 2) : Math.max(minDelay, state.window / 2);
+        state.timerId = vertx.setTimer(state.window, id -> flush(ws, state));
+    }
+
+    private void write(ServerWebSocket ws, OutboundFrame frame) {
+        if (!ws.isClosed()) {
+            WireFormat.of(ws).write(ws, frame);
+        }
+        Metrics.counter("outbound.room.messages").add(frame.messages());
+        Metrics.increment("outbound.room.frames");
+        Metrics.record("outbound.batch.size", frame.messages());
+    }
+}
@@ -0,0 +1,113 @@
+package helper;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static helper.ConstantHolder.EVENT;
+import static helper.ConstantHolder.MESSAGES;
+
+/**
+ * Исходящее сообщение комнаты, которое кодируется в каждый формат не больше одного раза
+ * и затем отправляется всем участникам комнаты этого экземпляра вертикла.
+ * Пачка из {@link OutboundBatcher} собирается из уже закодированных сообщений без повторного разбора.
+ * Экземпляр не потокобезопасен и используется только из контекста вертикла, которому принадлежат сокеты
+ */
+public final class OutboundFrame {
+    private static final int CBOR_MAP = 5;
+    private static final int CBOR_ARRAY = 4;
+    private static final int CBOR_TEXT = 3;
+
+    private final List<OutboundFrame> batch;
+    private String json;
+    private Buffer cbor;
+
+    /**
+     * @param json сообщение в виде JSON строки, например из канала Редиса
+     */
+    public OutboundFrame(String json) {
+        this.json = json;
+        this.batch = null;
+    }
+
+    private OutboundFrame(List<OutboundFrame> batch) {
+        this.batch = List.copyOf(batch);
+    }
+
+    /**
+     * Пачка {"event":"batch","messages":[...]} из нескольких сообщений
+     * @param messages сообщения в порядке отправки
+     */
+    public static OutboundFrame batch(List<OutboundFrame> messages) {
+        return new OutboundFrame(messages);
+    }
+
+    /**
+     * Число сообщений в кадре
+     */
+    public int messages() {
+        return batch == null ? 1 : batch.size();
+    }
+
+    public String json() {
+        if (json == null) {
+            int length = 0;
+            for (OutboundFrame message : batch) {
+                length += message.json().length() + 1;
+            }
+            StringBuilder frame = new StringBuilder(length + 32)
+                .append("{\"").append(EVENT).append("\":\"").append(OutboundBatcher.BATCH).append("\",\"")
+                .append(MESSAGES).append("\":[");
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) {
+                    frame.append(',');
+                }
+                frame.append(batch.get(i).json());
+            }
+            json = frame.append("]}").toString();
+        }
+        return json;
+    }
+
+    public Buffer cbor() {
+        if (cbor == null) {
+            if (batch == null) {
+                cbor = WireFormat.CBOR.encode(new JsonObject(json));
+            } else {
+                Buffer frame = Buffer.buffer();
+                header(frame, CBOR_MAP, 2);
+                text(frame, EVENT);
+                text(frame, OutboundBatcher.BATCH);
+                text(frame, MESSAGES);
+                header(frame, CBOR_ARRAY, batch.size());
+                batch.forEach(message -> frame.appendBuffer(message.cbor()));
+                cbor = frame;
+            }
+        }
+        return cbor;
+    }
+
+    private static void text(Buffer frame, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        header(frame, CBOR_TEXT, bytes.length);
+        frame.appendBytes(bytes);
+    }
+
+    /**
+     * Заголовок элемента CBOR: старший тип и длина в минимальной форме
+     */
+    private static void header(Buffer frame, int major, long length) {
+        int type = major << 5;
+        if (length < 24) {
+            frame.appendByte((byte) (type | length));
+        } else if (length < 0x100) {
+            frame.appendByte((byte) (type | 24)).appendByte((byte) length);
+        } else if (length < 0x10000) {
+            frame.appendByte((byte) (type | 25)).appendShort((short) length);
+        } else {
+            frame.appendByte((byte) (type | 26)).appendInt((int) length);
+        }
+    }
+}
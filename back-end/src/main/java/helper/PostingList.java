@@ -0,0 +1,237 @@
+package helper;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Возрастающий список позиций сообщений для одного слова.
+ * Хранится как разности соседних позиций в формате varint, так что частые слова в активной комнате занимают
+ * около байта на вхождение. На каждые BLOCK позиций заведена запись пропуска: первая позиция блока и его смещение,
+ * поэтому {@link Cursor} читает список от новых позиций к старым и перескакивает целые блоки
+ */
+public final class PostingList {
+    private static final int BLOCK = 128;
+
+    private byte[] data = new byte[8];
+    private int size;
+    private int count;
+    private long last = -1;
+
+    /**
+     * Записи пропуска: первая позиция блока, позиция перед ним и смещение блока в data
+     */
+    private long[] blockFirst = new long[1];
+    private long[] blockBase = new long[1];
+    private int[] blockOffset = new int[1];
+    private int blocks;
+
+    /**
+     * Граница уже сохранённой части списка, после неё лежат изменения для {@link #writeChanges(DataOutputStream)}
+     */
+    private int persistedSize;
+    private int persistedCount;
+
+    /**
+     * Добавление позиции, позиции должны идти строго по возрастанию
+     * @param position позиция сообщения в истории комнаты
+     * @return false если позиция не больше последней и не была добавлена
+     */
+    public boolean add(long position) {
+        if (position <= last) {
+            return false;
+        }
+        if (count % BLOCK == 0) {
+            if (blocks == blockFirst.length) {
+                blockFirst = Arrays.copyOf(blockFirst, blocks * 2);
+                blockBase = Arrays.copyOf(blockBase, blocks * 2);
+                blockOffset = Arrays.copyOf(blockOffset, blocks * 2);
+            }
+            blockFirst[blocks] = position;
+            blockBase[blocks] = last;
+            blockOffset[blocks] = size;
+            blocks++;
+        }
+        long delta = position - last;
+        if (size + 10 > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + 10));
+        }
+        while ((delta & ~0x7FL) != 0) {
+            data[size++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        data[size++] = (byte) delta;
+        last = position;
+        count++;
+        return true;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int bytes() {
+        return size;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Весь список: число позиций, последняя позиция и разности
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        out.writeLong(last);
+        out.writeInt(size);
+        out.write(data, 0, size);
+    }
+
+    /**
+     * Только позиции, добавленные после прошлого сохранения, в том же формате, что и {@link #write(DataOutputStream)}.
+     * Разности продолжают сохранённую часть, поэтому дописываются к ней через {@link #append(DataInputStream)}
+     */
+    public void writeChanges(DataOutputStream out) throws IOException {
+        out.writeInt(count - persistedCount);
+        out.writeLong(last);
+        out.writeInt(size - persistedSize);
+        out.write(data, persistedSize, size - persistedSize);
+        persistedSize = size;
+        persistedCount = count;
+    }
+
+    public static PostingList read(DataInputStream in) throws IOException {
+        PostingList list = new PostingList();
+        list.append(in);
+        return list;
+    }
+
+    /**
+     * Дописывание позиций, сохранённых через {@link #write(DataOutputStream)} или {@link #writeChanges(DataOutputStream)}
+     * @throws IOException если разности не сходятся с последней позицией
+     */
+    public void append(DataInputStream in) throws IOException {
+        int added = in.readInt();
+        long expectedLast = in.readLong();
+        byte[] deltas = new byte[in.readInt()];
+        in.readFully(deltas);
+        int offset = 0;
+        for (int i = 0; i < added; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (offset >= deltas.length) {
+                    throw new IOException("Truncated posting list");
+                }
+                b = deltas[offset++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (!add(last + delta)) {
+                throw new IOException("Posting list is not increasing");
+            }
+        }
+        if (last != expectedLast || offset != deltas.length) {
+            throw new IOException("Corrupted posting list");
+        }
+        persistedSize = size;
+        persistedCount = count;
+    }
+
+    /**
+     * Чтение позиций по убыванию, от самых новых сообщений. Курсор сразу стоит на последней позиции.
+     * Блок распаковывается целиком в буфер, а дальше читается с конца
+     */
+    public final class Cursor {
+        private final long[] buffer = new long[BLOCK];
+        private final int blockCount = blocks;
+        private final int end = size;
+        private int block;
+        private int index;
+        private long current = -1;
+
+        private Cursor() {
+            if (blockCount > 0) {
+                load(blockCount - 1);
+            }
+        }
+
+        /**
+         * Текущая позиция или -1, если список закончился
+         */
+        public long current() {
+            return current;
+        }
+
+        public long next() {
+            if (current == -1) {
+                return -1;
+            }
+            if (index > 0) {
+                return current = buffer[--index];
+            }
+            return block > 0 ? load(block - 1) : (current = -1);
+        }
+
+        /**
+         * Переход к первой по ходу курсора позиции не больше target. Блоки, которые целиком новее target,
+         * пропускаются бинарным поиском по записям пропуска
+         * @return эта позиция или -1
+         */
+        public long advance(long target) {
+            if (current == -1 || current <= target) {
+                return current;
+            }
+            if (buffer[0] > target) {
+                int low = 0;
+                int high = block - 1;
+                int found = -1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    if (blockFirst[mid] <= target) {
+                        found = mid;
+                        low = mid + 1;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                if (found == -1) {
+                    return current = -1;
+                }
+                load(found);
+            }
+            while (buffer[index] > target) {
+                index--;
+            }
+            return current = buffer[index];
+        }
+
+        /**
+         * Распаковка блока в буфер, курсор встаёт на его последнюю позицию
+         */
+        private long load(int target) {
+            block = target;
+            int offset = blockOffset[target];
+            int limit = target + 1 < blockCount ? blockOffset[target + 1] : end;
+            long value = blockBase[target];
+            int n = 0;
+            while (offset < limit) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                value += delta;
+                buffer[n++] = value;
+            }
+            index = n - 1;
+            return current = buffer[index];
+        }
+    }
+}
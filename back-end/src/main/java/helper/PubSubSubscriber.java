@@ -0,0 +1,182 @@
+package helper;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisConnection;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+import static helper.ConstantHolder.MESSAGE;
+
+/**
+ * Одно соединение Редиса в режиме pub/sub на все каналы вертикла, под присмотром.
+ * Обрыв замечается по закрытию или ошибке соединения, после чего идут попытки переподключения
+ * с экспоненциальной задержкой и случайным разбросом, чтобы узлы не ломились в Редис одновременно.
+ * После переподключения все каналы подписываются одной командой и вызывается onRecovered, чтобы догрузить пропущенное.
+ * Экземпляр не потокобезопасен и используется из контекста вертикла
+ */
+public final class PubSubSubscriber {
+    private static final long DEFAULT_BASE_DELAY = 100;
+    private static final long DEFAULT_MAX_DELAY = 10_000;
+
+    private final Vertx vertx;
+    private final Redis redis;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final BiConsumer<String, String> handler;
+    private final Runnable onRecovered;
+    private final Set<String> channels = new LinkedHashSet<>();
+
+    private RedisConnection connection;
+    private int attempt;
+    private long outageStart;
+    private boolean closed;
+
+    /**
+     * @param vertx экземпляр Vert.x
+     * @param redis клиент Редиса
+     * @param config reconnectBaseDelay и reconnectMaxDelay в миллисекундах
+     * @param handler получатель сообщений: канал и текст сообщения
+     * @param onRecovered вызывается после восстановления подписок на все каналы
+     */
+    public PubSubSubscriber(Vertx vertx, Redis redis, JsonObject config, BiConsumer<String, String> handler, Runnable onRecovered) {
+        this.vertx = vertx;
+        this.redis = redis;
+        this.baseDelay = Math.max(1, config.getLong("reconnectBaseDelay", DEFAULT_BASE_DELAY));
+        this.maxDelay = Math.max(baseDelay, config.getLong("reconnectMaxDelay", DEFAULT_MAX_DELAY));
+        this.handler = handler;
+        this.onRecovered = onRecovered;
+    }
+
+    /**
+     * Первое подключение, при неудаче соединение продолжает восстанавливаться в фоне
+     */
+    public Future<Void> start() {
+        return connect().recover(err -> {
+            outageStart = System.currentTimeMillis();
+            scheduleReconnect();
+            return Future.failedFuture(err);
+        });
+    }
+
+    /**
+     * Подписка на канал, если соединения сейчас нет, канал подпишется при переподключении
+     * @param channel имя канала
+     */
+    public void subscribe(String channel) {
+        if (channels.add(channel) && connection != null) {
+            connection.send(Request.cmd(Command.SUBSCRIBE).arg(channel))
+                .onFailure(err -> System.err.println("Failed to subscribe to Redis channel " + channel + ": " + err.getMessage()));
+        }
+    }
+
+    /**
+     * Отписка от канала
+     * @param channel имя канала
+     */
+    public void unsubscribe(String channel) {
+        if (channels.remove(channel) && connection != null) {
+            connection.send(Request.cmd(Command.UNSUBSCRIBE).arg(channel))
+                .onFailure(err -> System.err.println("Failed to unsubscribe from Redis channel " + channel + ": " + err.getMessage()));
+        }
+    }
+
+    /**
+     * Есть ли сейчас живое соединение
+     */
+    public boolean connected() {
+        return connection != null;
+    }
+
+    public Future<Void> close() {
+        closed = true;
+        RedisConnection current = connection;
+        connection = null;
+        return current != null ? current.close() : Future.succeededFuture();
+    }
+
+    private Future<Void> connect() {
+        return redis.connect().compose(conn -> {
+            conn.handler(this::handleMessage);
+            conn.exceptionHandler(err -> disconnected(conn, err.getMessage()));
+            conn.endHandler(v -> disconnected(conn, "connection closed"));
+            if (channels.isEmpty()) {
+                connection = conn;
+                return Future.succeededFuture();
+            }
+            Set<String> requested = Set.copyOf(channels);
+            Request subscribe = Request.cmd(Command.SUBSCRIBE);
+            requested.forEach(subscribe::arg);
+            return conn.send(subscribe)
+                .onSuccess(res -> {
+                    connection = conn;
+                    syncChannels(requested);
+                })
+                .onFailure(err -> conn.close())
+                .mapEmpty();
+        });
+    }
+
+    /**
+     * Каналы, добавленные или убранные, пока шла массовая подписка
+     */
+    private void syncChannels(Set<String> requested) {
+        for (String channel : channels) {
+            if (!requested.contains(channel)) {
+                connection.send(Request.cmd(Command.SUBSCRIBE).arg(channel));
+            }
+        }
+        for (String channel : requested) {
+            if (!channels.contains(channel)) {
+                connection.send(Request.cmd(Command.UNSUBSCRIBE).arg(channel));
+            }
+        }
+    }
+
+    private void handleMessage(Response message) {
+        if (message.size() >= 3 && MESSAGE.equals(message.get(0).toString())) {
+            handler.accept(message.get(1).toString(), message.get(2).toString());
+        }
+    }
+
+    private void disconnected(RedisConnection conn, String reason) {
+        if (closed || conn != connection) {
+            return;
+        }
+        connection = null;
+        outageStart = System.currentTimeMillis();
+        Metrics.increment("redis.pubsub.disconnects");
+        System.err.println("Redis pub/sub connection lost: " + reason);
+        conn.close();
+        scheduleReconnect();
+    }
+
+    /**
+     * Задержка растёт вдвое на каждую попытку до maxDelay, берётся случайное значение из её второй половины
+     */
+    private void scheduleReconnect() {
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt, 20));
+        long delay = Math.max(1, ceiling / 2) + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        attempt++;
+        vertx.setTimer(delay, id -> {
+            if (closed) {
+                return;
+            }
+            Metrics.increment("redis.pubsub.reconnect.attempts");
+            connect().onSuccess(v -> {
+                Metrics.record("redis.pubsub.outage.millis", System.currentTimeMillis() - outageStart);
+                System.out.println("Redis pub/sub connection restored after " + attempt + " attempts, channels: " + channels.size());
+                attempt = 0;
+                onRecovered.run();
+            }).onFailure(err -> scheduleReconnect());
+        });
+    }
+}
@@ -0,0 +1,168 @@
+package helper;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограничение частоты запросов от клиентов, отдельно на каждое соединение и на каждого пользователя.
+ * Ведро токенов реализовано через GCRA: состояние ведра это одно число, теоретическое время следующего запроса,
+ * которое меняется через CAS, поэтому блокировок нет и один экземпляр можно делить между вертиклами
+ */
+public final class RateLimiter implements Shareable {
+    private static final String SHARED_MAP = "rateLimiter";
+    private static final int EVENTS = WebSocketEvent.values().length;
+    private static final long EVICTION_PERIOD = 60_000;
+
+    public static final String CONNECTION = "connection";
+    public static final String USER = "user";
+
+    private final Budget[] connectionBudgets = new Budget[EVENTS];
+    private final Budget[] userBudgets = new Budget[EVENTS];
+    private final ConcurrentMap<String, AtomicLongArray> users = new ConcurrentHashMap<>();
+
+    /**
+     * Бюджет событий одного типа
+     * @param ratePerSecond сколько событий в секунду восполняется
+     * @param burst сколько событий можно отправить подряд
+     */
+    public record Budget(double ratePerSecond, int burst) {
+        static final Budget UNLIMITED = new Budget(0, 0);
+
+        long intervalNanos() {
+            return (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        }
+
+        boolean isUnlimited() {
+            return ratePerSecond <= 0;
+        }
+
+        static Budget from(JsonObject json, Budget defaults) {
+            if (json == null) {
+                return defaults;
+            }
+            return new Budget(json.getDouble("rate", defaults.ratePerSecond), json.getInteger("burst", defaults.burst));
+        }
+    }
+
+    private RateLimiter(JsonObject config) {
+        JsonObject events = config.getJsonObject("events", new JsonObject());
+        for (WebSocketEvent event : WebSocketEvent.values()) {
+            JsonObject eventConfig = events.getJsonObject(event.getValue(), new JsonObject());
+            connectionBudgets[event.ordinal()] = Budget.from(eventConfig.getJsonObject(CONNECTION), defaultConnectionBudget(event));
+            userBudgets[event.ordinal()] = Budget.from(eventConfig.getJsonObject(USER), defaultUserBudget(event));
+        }
+    }
+
+    /**
+     * Общий на весь Vert.x экземпляр лимитер, создаётся первым вертиклом, который его запросит.
+     * Он же один раз заводит таймер очистки простаивающих пользователей
+     * @param vertx экземпляр Vert.x
+     * @param config настройки бюджетов
+     */
+    public static RateLimiter shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, RateLimiter> map = vertx.sharedData().getLocalMap(SHARED_MAP);
+        RateLimiter limiter = new RateLimiter(config);
+        RateLimiter existing = map.putIfAbsent(SHARED_MAP, limiter);
+        if (existing != null) {
+            return existing;
+        }
+        vertx.setPeriodic(EVICTION_PERIOD, id -> limiter.evictIdle());
+        return limiter;
+    }
+
+    /**
+     * Состояние вёдер для нового соединения
+     */
+    public AtomicLongArray newConnectionState() {
+        return new AtomicLongArray(EVENTS);
+    }
+
+    /**
+     * Попытка списать токен из ведра соединения и, если пользователь уже известен, из ведра пользователя
+     * @param connection состояние соединения
+     * @param login логин пользователя или null, если сокет ещё не аутентифицирован
+     * @param event тип события
+     * @return null если запрос разрешён, иначе область, бюджет которой исчерпан
+     */
+    public String tryAcquire(AtomicLongArray connection, String login, WebSocketEvent event) {
+        long now = System.nanoTime();
+        int slot = event.ordinal();
+        if (!tryAcquire(connection, slot, connectionBudgets[slot], now)) {
+            return CONNECTION;
+        }
+        if (login != null) {
+            AtomicLongArray user = users.computeIfAbsent(login, x -> new AtomicLongArray(EVENTS));
+            if (!tryAcquire(user, slot, userBudgets[slot], now)) {
+                return USER;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Удаление пользователей, у которых все вёдра уже полностью восполнились
+     */
+    public void evictIdle() {
+        long now = System.nanoTime();
+        users.forEach((login, state) -> {
+            for (int i = 0; i < EVENTS; i++) {
+                long tat = state.get(i);
+                if (tat != 0 && tat - now > 0) {
+                    return;
+                }
+            }
+            users.remove(login, state);
+        });
+    }
+
+    private static boolean tryAcquire(AtomicLongArray state, int slot, Budget budget, long now) {
+        if (budget.isUnlimited()) {
+            return true;
+        }
+        long interval = budget.intervalNanos();
+        long tolerance = interval * budget.burst();
+        while (true) {
+            long tat = state.get(slot);
+            long base = tat == 0 || tat - now < 0 ? now : tat;
+            long next = base + interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (state.compareAndSet(slot, tat, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static Budget defaultConnectionBudget(WebSocketEvent event) {
+        return switch (event) {
+            case MESSAGE -> new Budget(20, 40);
+            case JOIN -> new Budget(5, 20);
+            case GET_MESSAGES -> new Budget(2, 5);
+            case SEARCH_MESSAGES -> new Budget(1, 5);
+            case MARK_READ -> new Budget(10, 40);
+            case GET_UNREAD_COUNTS -> new Budget(1, 5);
+            case LOGIN, REGISTER, AUTH, LOGOUT -> new Budget(1, 5);
+            case GET_ONLINE_USERS -> new Budget(2, 10);
+        };
+    }
+
+    private static Budget defaultUserBudget(WebSocketEvent event) {
+        return switch (event) {
+            case MESSAGE -> new Budget(30, 60);
+            case JOIN -> new Budget(10, 40);
+            case GET_MESSAGES -> new Budget(4, 10);
+            case SEARCH_MESSAGES -> new Budget(2, 5);
+            case MARK_READ -> new Budget(20, 60);
+            case GET_UNREAD_COUNTS -> new Budget(2, 10);
+            default -> Budget.UNLIMITED;
+        };
+    }
+}
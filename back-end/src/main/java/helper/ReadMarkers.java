@@ -0,0 +1,198 @@
+package helper;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Отметки прочтения: для каждого пользователя хеш read:&lt;login&gt;, где комнате соответствует номер последнего
+ * прочитанного сообщения. Непрочитанные считаются как разница с текущим номером комнаты seq:&lt;room&gt;,
+ * так что содержимое истории для этого не читается.
+ * Частые отметки копятся в памяти, от каждой пары пользователь-комната остаётся только наибольший номер,
+ * и раз в flushInterval уходят в Редис одной пачкой. Отметка только двигается вперёд.
+ * Экземпляр не потокобезопасен и используется из контекста RedisVerticle
+ */
+public final class ReadMarkers {
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    private static final int DEFAULT_MAX_PENDING = 10_000;
+
+    /**
+     * KEYS[1] - хеш отметок пользователя, KEYS[2..] - счётчики номеров комнат, ARGV - пары комната, номер в том же порядке.
+     * Номер не может обогнать счётчик комнаты, иначе новые сообщения не считались бы непрочитанными
+     */
+    private static final String ADVANCE_SCRIPT = """
+        for i = 2, #KEYS do
+            local room = ARGV[2 * i - 3]
+            local current = tonumber(redis.call('HGET', KEYS[1], room) or '0')
+            local seq = math.min(tonumber(ARGV[2 * i - 2]), tonumber(redis.call('GET', KEYS[i]) or '0'))
+            if seq > current then
+                redis.call('HSET', KEYS[1], room, seq)
+            end
+        end
+        return 0
+        """;
+
+    /**
+     * KEYS[1] - хеш отметок пользователя, KEYS[2] - счётчик номеров комнаты, ARGV[1] - комната.
+     * Первая отметка ставится на текущий номер, чтобы вся прошлая история не считалась непрочитанной
+     */
+    private static final String JOIN_SCRIPT = """
+        return redis.call('HSETNX', KEYS[1], ARGV[1], redis.call('GET', KEYS[2]) or '0')
+        """;
+
+    /**
+     * KEYS[1] - хеш отметок пользователя, KEYS[2..] - счётчики номеров комнат, ARGV - комнаты в том же порядке.
+     * Возвращает пары отметка, текущий номер
+     */
+    private static final String COUNTS_SCRIPT = """
+        local result = {}
+        for i = 2, #KEYS do
+            result[#result + 1] = redis.call('HGET', KEYS[1], ARGV[i - 1]) or '0'
+            result[#result + 1] = redis.call('GET', KEYS[i]) or '0'
+        end
+        return result
+        """;
+
+    private final Vertx vertx;
+    private final Redis redis;
+    private final long flushInterval;
+    private final int maxPending;
+    private final Map<String, Map<String, Long>> pending = new HashMap<>();
+    private int pendingCount;
+    private long flushTimer = -1;
+
+    /**
+     * @param vertx экземпляр Vert.x
+     * @param redis клиент Редиса
+     * @param config flushInterval в миллисекундах и maxPending - после скольких накопленных отметок сбрасывать досрочно
+     */
+    public ReadMarkers(Vertx vertx, Redis redis, JsonObject config) {
+        this.vertx = vertx;
+        this.redis = redis;
+        this.flushInterval = config.getLong("flushInterval", DEFAULT_FLUSH_INTERVAL);
+        this.maxPending = config.getInteger("maxPending", DEFAULT_MAX_PENDING);
+    }
+
+    public void start() {
+        flushTimer = vertx.setPeriodic(flushInterval, id -> flush());
+    }
+
+    public Future<Void> stop() {
+        if (flushTimer != -1) {
+            vertx.cancelTimer(flushTimer);
+        }
+        return flush();
+    }
+
+    /**
+     * Пользователь вошёл в комнату, если отметки ещё нет, она ставится на текущий номер
+     * @param login логин пользователя
+     * @param room идентификатор комнаты
+     */
+    public Future<Void> join(String login, String room) {
+        return redis.send(Request.cmd(Command.EVAL).arg(JOIN_SCRIPT).arg(2)
+                .arg(key(login)).arg(MessageSequence.key(room)).arg(room))
+            .mapEmpty();
+    }
+
+    /**
+     * Отметка прочтения, в Редис попадёт при следующем сбросе
+     * @param login логин пользователя
+     * @param room идентификатор комнаты
+     * @param seq номер последнего прочитанного сообщения
+     */
+    public void markRead(String login, String room, long seq) {
+        Metrics.increment("readMarkers.updates");
+        queue(login, room, seq);
+        if (pendingCount >= maxPending) {
+            flush();
+        }
+    }
+
+    private void queue(String login, String room, long seq) {
+        Map<String, Long> rooms = pending.computeIfAbsent(login, x -> new HashMap<>());
+        Long previous = rooms.get(room);
+        if (previous == null) {
+            pendingCount++;
+        }
+        if (previous == null || seq > previous) {
+            rooms.put(room, seq);
+        }
+    }
+
+    /**
+     * Непрочитанные по всем комнатам пользователя с учётом ещё не сброшенных отметок. Сначала читается список комнат,
+     * затем отметки и счётчики одним скриптом, которому все его ключи переданы в KEYS
+     * @param login логин пользователя
+     * @return комната -> число непрочитанных сообщений
+     */
+    public Future<JsonObject> unreadCounts(String login) {
+        return redis.send(Request.cmd(Command.HKEYS).arg(key(login))).compose(joined -> {
+            List<String> rooms = joined.stream().map(Response::toString).toList();
+            if (rooms.isEmpty()) {
+                return Future.succeededFuture(new JsonObject());
+            }
+            Request request = Request.cmd(Command.EVAL).arg(COUNTS_SCRIPT).arg(rooms.size() + 1).arg(key(login));
+            rooms.forEach(room -> request.arg(MessageSequence.key(room)));
+            rooms.forEach(room -> request.arg(room));
+            return redis.send(request).map(res -> {
+                Map<String, Long> local = pending.getOrDefault(login, Map.of());
+                JsonObject counts = new JsonObject();
+                for (int i = 0; i < rooms.size(); i++) {
+                    String room = rooms.get(i);
+                    long marker = Math.max(res.get(2 * i).toLong(), local.getOrDefault(room, 0L));
+                    counts.put(room, Math.max(0, res.get(2 * i + 1).toLong() - marker));
+                }
+                return counts;
+            });
+        });
+    }
+
+    /**
+     * Сброс накопленных отметок: по одному скрипту на пользователя, все скрипты уходят одной пачкой.
+     * Если Редис недоступен, отметки возвращаются в очередь до следующего сброса
+     */
+    private Future<Void> flush() {
+        if (pending.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        List<Request> requests = new ArrayList<>(pending.size());
+        int fields = 0;
+        for (Map.Entry<String, Map<String, Long>> user : pending.entrySet()) {
+            List<Map.Entry<String, Long>> rooms = List.copyOf(user.getValue().entrySet());
+            Request request = Request.cmd(Command.EVAL).arg(ADVANCE_SCRIPT).arg(rooms.size() + 1).arg(key(user.getKey()));
+            for (Map.Entry<String, Long> room : rooms) {
+                request.arg(MessageSequence.key(room.getKey()));
+            }
+            for (Map.Entry<String, Long> room : rooms) {
+                request.arg(room.getKey()).arg(room.getValue());
+            }
+            fields += rooms.size();
+            requests.add(request);
+        }
+        Map<String, Map<String, Long>> flushed = Map.copyOf(pending);
+        pending.clear();
+        pendingCount = 0;
+        Metrics.increment("readMarkers.flushes");
+        Metrics.counter("readMarkers.writes").add(fields);
+        return redis.batch(requests)
+            .onFailure(err -> {
+                System.err.println("Failed to store read markers: " + err.getMessage());
+                flushed.forEach((login, rooms) -> rooms.forEach((room, seq) -> queue(login, room, seq)));
+            })
+            .mapEmpty();
+    }
+
+    private static String key(String login) {
+        return "read:" + login;
+    }
+}
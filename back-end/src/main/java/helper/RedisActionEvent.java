@@ -6,7 +6,10 @@ public enum RedisActionEvent {
     SUBSCRIBE("subscribe"),
     UNSUBSCRIBE("unsubscribe"),
     PUBLISH("publish"),
-    GET_MESSAGES("getMessages");
+    GET_MESSAGES("getMessages"),
+    GET_MESSAGES_AT("getMessagesAt"),
+    MARK_READ("markRead"),
+    GET_UNREAD_COUNTS("getUnreadCounts");
 
 
     private final String value;
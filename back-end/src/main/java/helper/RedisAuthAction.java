@@ -4,7 +4,10 @@ import java.util.Arrays;
 
 public enum RedisAuthAction {
     REGISTER("register"),
-    AUTHENTICATE("authenticate");
+    AUTHENTICATE("authenticate"),
+    REVOKE("revoke"),
+    CHECK_REVOKED("checkRevoked"),
+    LIST_REVOKED("listRevoked");
 
     public String getValue() {
         return value;
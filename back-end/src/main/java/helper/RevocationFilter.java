@@ -0,0 +1,109 @@
+package helper;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static helper.ConstantHolder.ACTION;
+import static helper.ConstantHolder.ENTRIES;
+import static helper.ConstantHolder.MESSAGE;
+import static helper.ConstantHolder.OK;
+import static helper.ConstantHolder.REDIS_AUTH;
+import static helper.ConstantHolder.STATUS;
+
+/**
+ * Фильтр Блума по отозванным записям, один на весь узел: его делят все экземпляры JwtAuthVerticle.
+ * Фильтр не умеет удалять, поэтому время от времени строится заново без истёкших записей,
+ * старый продолжает работать, пока новый не готов. Перестроение идёт одно на узел
+ */
+public final class RevocationFilter implements Shareable {
+    private static final String SHARED_MAP = "revocationFilter";
+    private static final long DEFAULT_EXPECTED_REVOCATIONS = 100_000;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+    private static final long DEFAULT_REBUILD_INTERVAL = 300_000;
+
+    private final Vertx vertx;
+    private final long expectedRevocations;
+    private final double falsePositiveRate;
+    private volatile BloomFilter filter;
+    /**
+     * Пока фильтр не загружен из Редиса, каждый токен проверяется по Редису
+     */
+    private volatile boolean loaded;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    /**
+     * Отзывы, пришедшие во время перестроения, переносятся в новый фильтр
+     */
+    private final Queue<String> revokedDuringRebuild = new ConcurrentLinkedQueue<>();
+
+    private RevocationFilter(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.expectedRevocations = config.getLong("expectedTokens", DEFAULT_EXPECTED_REVOCATIONS);
+        this.falsePositiveRate = config.getDouble("falsePositiveRate", DEFAULT_FALSE_POSITIVE_RATE);
+        this.filter = new BloomFilter(expectedRevocations, falsePositiveRate);
+    }
+
+    /**
+     * Общий на весь Vert.x экземпляр фильтр. Вертикл, который создал его первым, запускает загрузку
+     * и один раз заводит таймер перестроения
+     * @param vertx экземпляр Vert.x
+     * @param config expectedTokens, falsePositiveRate, rebuildInterval в миллисекундах
+     */
+    public static RevocationFilter shared(Vertx vertx, JsonObject config) {
+        LocalMap<String, RevocationFilter> map = vertx.sharedData().getLocalMap(SHARED_MAP);
+        RevocationFilter filter = new RevocationFilter(vertx, config);
+        RevocationFilter existing = map.putIfAbsent(SHARED_MAP, filter);
+        if (existing != null) {
+            return existing;
+        }
+        filter.rebuild();
+        vertx.setPeriodic(config.getLong("rebuildInterval", DEFAULT_REBUILD_INTERVAL), id -> filter.rebuild());
+        return filter;
+    }
+
+    /**
+     * @return false если записи точно нет и Редис можно не спрашивать
+     */
+    public boolean mightContain(String entry) {
+        return !loaded || filter.mightContain(entry);
+    }
+
+    public void put(String entry) {
+        if (rebuilding.get()) {
+            revokedDuringRebuild.add(entry);
+        }
+        filter.put(entry);
+    }
+
+    /**
+     * Новый фильтр по всем действующим записям из Редиса. Если перестроение уже идёт, второе не запускается
+     */
+    public void rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        revokedDuringRebuild.clear();
+        vertx.eventBus().<JsonObject>request(REDIS_AUTH, new JsonObject().put(ACTION, RedisAuthAction.LIST_REVOKED.getValue()))
+            .onSuccess(reply -> {
+                JsonArray entries = reply.body().getJsonArray(ENTRIES);
+                if (!OK.equals(reply.body().getString(STATUS)) || entries == null) {
+                    System.err.println("Failed to load revoked tokens: " + reply.body().getString(MESSAGE));
+                    return;
+                }
+                BloomFilter fresh = new BloomFilter(Math.max(expectedRevocations, entries.size() * 2L), falsePositiveRate);
+                entries.forEach(entry -> fresh.put(entry.toString()));
+                filter = fresh;
+                revokedDuringRebuild.forEach(fresh::put);
+                loaded = true;
+                Metrics.record("auth.revocation.entries", entries.size());
+            })
+            .onFailure(err -> System.err.println("Failed to load revoked tokens: " + err.getMessage()))
+            .onComplete(done -> rebuilding.set(false));
+    }
+}
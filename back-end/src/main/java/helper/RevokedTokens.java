@@ -0,0 +1,86 @@
+package helper;
+
+import io.vertx.core.Future;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.util.List;
+
+/**
+ * Отозванные токены в Редисе. Запись отзыва это ключ revoked:&lt;entry&gt; со сроком жизни до истечения токена, где entry
+ * это token:&lt;jti&gt; для одного токена или user:&lt;login&gt; для всех токенов пользователя, выданных до момента отзыва.
+ * Живые записи дополнительно лежат в сортированном множестве по времени истечения, из него узлы строят свой фильтр,
+ * а каждый новый отзыв публикуется в канал {@link #CHANNEL}
+ */
+public final class RevokedTokens {
+    public static final String CHANNEL = "chat:revoked";
+    private static final String INDEX_KEY = "revoked:index";
+    private static final String TOKEN_PREFIX = "token:";
+    private static final String USER_PREFIX = "user:";
+
+    /**
+     * KEYS[1] - ключ записи, KEYS[2] - множество записей, ARGV - запись, значение, срок жизни в миллисекундах, текущее время
+     */
+    private static final String REVOKE_SCRIPT = """
+        redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3])
+        redis.call('ZADD', KEYS[2], tonumber(ARGV[4]) + tonumber(ARGV[3]), ARGV[1])
+        redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', ARGV[4])
+        redis.call('PUBLISH', '%s', ARGV[1])
+        return 1
+        """.formatted(CHANNEL);
+
+    private final Redis redis;
+
+    public RevokedTokens(Redis redis) {
+        this.redis = redis;
+    }
+
+    public static String tokenEntry(String jti) {
+        return TOKEN_PREFIX + jti;
+    }
+
+    public static String userEntry(String login) {
+        return USER_PREFIX + login;
+    }
+
+    /**
+     * Запись отзыва
+     * @param entry token:&lt;jti&gt; или user:&lt;login&gt;
+     * @param value для пользователя время отзыва в миллисекундах, токены, выданные раньше него, недействительны
+     * @param ttl сколько миллисекунд хранить запись, не меньше оставшегося срока жизни токенов
+     */
+    public Future<Void> revoke(String entry, String value, long ttl) {
+        return redis.send(Request.cmd(Command.EVAL).arg(REVOKE_SCRIPT).arg(2)
+                .arg(key(entry)).arg(INDEX_KEY)
+                .arg(entry).arg(value).arg(Math.max(1, ttl)).arg(System.currentTimeMillis()))
+            .mapEmpty();
+    }
+
+    /**
+     * Точная проверка токена по Редису
+     * @param jti идентификатор токена или null для токенов без него
+     * @param login владелец токена
+     * @param issuedAt время выдачи токена в миллисекундах
+     */
+    public Future<Boolean> isRevoked(String jti, String login, long issuedAt) {
+        return redis.send(Request.cmd(Command.MGET)
+                .arg(key(tokenEntry(jti == null ? "" : jti)))
+                .arg(key(userEntry(login))))
+            .map(res -> (jti != null && res.get(0) != null)
+                || (res.get(1) != null && issuedAt < res.get(1).toLong()));
+    }
+
+    /**
+     * Все ещё действующие записи отзыва
+     */
+    public Future<List<String>> entries() {
+        return redis.send(Request.cmd(Command.ZRANGEBYSCORE).arg(INDEX_KEY).arg(System.currentTimeMillis()).arg("+inf"))
+            .map(res -> res.stream().map(Response::toString).toList());
+    }
+
+    private static String key(String entry) {
+        return "revoked:" + entry;
+    }
+}
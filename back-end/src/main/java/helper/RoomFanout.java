@@ -0,0 +1,139 @@
+package helper;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Рассылка сообщений комнаты по сокетам одного экземпляра WebSocketVerticle.
+ * На каждую комнату регистрируется один consumer на экземпляр, а не на каждый сокет.
+ * Экземпляров вертикла несколько, и каждый рассылает своим сокетам на своём event loop.
+ * Большие комнаты режутся на части, каждая часть ставится отдельной задачей в контекст вертикла,
+ * чтобы остальные сокеты этого event loop не ждали окончания всей рассылки.
+ * Части не выполняются параллельно: сокет принадлежит event loop своего экземпляра, и запись в него
+ * из другого потока всё равно вернулась бы на этот event loop. Параллельно рассылают только разные экземпляры,
+ * их число задаёт webSocket.instances. Замер времени до последнего получателя в RoomFanoutBenchmark.
+ * Задачи контекста выполняются по очереди, поэтому порядок сообщений внутри одного сокета сохраняется.
+ * Сообщение кодируется в формат сокета один раз на всю комнату, см. {@link OutboundFrame}
+ */
+public final class RoomFanout {
+    private static final ServerWebSocket[] NO_MEMBERS = new ServerWebSocket[0];
+    private static final int DEFAULT_THRESHOLD = 1000;
+    private static final int DEFAULT_PARTITION_SIZE = 500;
+
+    private final Vertx vertx;
+    private final Context context;
+    private final int threshold;
+    private final int partitionSize;
+    private final BiConsumer<ServerWebSocket, OutboundFrame> delivery;
+    private final Map<String, Room> rooms = new HashMap<>();
+    private final Map<ServerWebSocket, Set<String>> socketRooms = new HashMap<>();
+
+    /**
+     * Участники комнаты на этом экземпляре. Массив участников заменяется целиком при входе и выходе,
+     * так что уже поставленные части рассылки продолжают работать со своим снимком
+     */
+    private static final class Room {
+        private ServerWebSocket[] members = NO_MEMBERS;
+        private MessageConsumer<String> consumer;
+        private int inFlight;
+    }
+
+    /**
+     * @param vertx экземпляр Vert.x
+     * @param context контекст вертикла, которому принадлежат сокеты
+     * @param config threshold - с какого числа участников включается нарезка, partitionSize - размер части
+     * @param delivery отправка одного сообщения в один сокет
+     */
+    public RoomFanout(Vertx vertx, Context context, JsonObject config, BiConsumer<ServerWebSocket, OutboundFrame> delivery) {
+        this.vertx = vertx;
+        this.context = context;
+        this.threshold = config.getInteger("threshold", DEFAULT_THRESHOLD);
+        this.partitionSize = Math.max(1, config.getInteger("partitionSize", DEFAULT_PARTITION_SIZE));
+        this.delivery = delivery;
+    }
+
+    /**
+     * Добавление сокета в комнату, при первом участнике подписываемся на адрес комнаты
+     * @param room идентификатор комнаты
+     * @param ws сокет соединение
+     */
+    public void join(String room, ServerWebSocket ws) {
+        if (!socketRooms.computeIfAbsent(ws, x -> new HashSet<>()).add(room)) {
+            return;
+        }
+        Room state = rooms.computeIfAbsent(room, x -> new Room());
+        if (state.consumer == null) {
+            state.consumer = vertx.eventBus().consumer("room." + room, message -> publish(state, message.body()));
+        }
+        ServerWebSocket[] members = Arrays.copyOf(state.members, state.members.length + 1);
+        members[members.length - 1] = ws;
+        state.members = members;
+    }
+
+    /**
+     * Удаление сокета из всех его комнат, пустые комнаты отписываются от шины
+     * @param ws сокет соединение
+     */
+    public void leave(ServerWebSocket ws) {
+        Set<String> joined = socketRooms.remove(ws);
+        if (joined == null) {
+            return;
+        }
+        for (String room : joined) {
+            Room state = rooms.get(room);
+            if (state == null) {
+                continue;
+            }
+            state.members = Arrays.stream(state.members)
+                .filter(member -> member != ws)
+                .toArray(ServerWebSocket[]::new);
+            if (state.members.length == 0) {
+                state.consumer.unregister();
+                rooms.remove(room);
+            }
+        }
+    }
+
+    private void publish(Room room, String json) {
+        ServerWebSocket[] members = room.members;
+        OutboundFrame message = new OutboundFrame(json);
+        long start = System.nanoTime();
+        if (members.length <= threshold && room.inFlight == 0) {
+            deliver(members, 0, members.length, message);
+            Metrics.record("fanout.lastRecipient.micros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            return;
+        }
+        int partitions = (members.length + partitionSize - 1) / partitionSize;
+        Metrics.record("fanout.partitions", partitions);
+        for (int from = 0; from < members.length; from += partitionSize) {
+            int to = Math.min(members.length, from + partitionSize);
+            int index = from;
+            boolean last = to == members.length;
+            room.inFlight++;
+            context.runOnContext(v -> {
+                room.inFlight--;
+                deliver(members, index, to, message);
+                if (last) {
+                    Metrics.record("fanout.lastRecipient.micros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                }
+            });
+        }
+    }
+
+    private void deliver(ServerWebSocket[] members, int from, int to, OutboundFrame message) {
+        for (int i = from; i < to; i++) {
+            delivery.accept(members[i], message);
+        }
+    }
+}
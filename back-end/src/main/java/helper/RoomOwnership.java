@@ -0,0 +1,330 @@
+package helper;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static helper.ConstantHolder.MESSAGE;
+import static helper.ConstantHolder.ROOM;
+
+/**
+ * Распределение комнат между несколькими процессами бэкенда.
+ * Живые узлы хранятся в Редисе в sorted set chat:nodes, каждый узел раз в heartbeatInterval обновляет своё время.
+ * Комнаты раздаются узлам консистентным хешированием, владелец комнаты знает, на каких узлах у неё есть участники.
+ * Сообщение сначала доставляется участникам на своём узле, затем через владельца только тем узлам, где комната открыта.
+ * Каждый узел слушает в Редисе только свой канал chat:node:&lt;id&gt;, а не канал каждой комнаты,
+ * подпиской на него управляет RedisVerticle через общее соединение pub/sub.
+ * При смене состава узлов переобъявляются только те комнаты, у которых сменился владелец, прежний владелец
+ * передаёт новому список заинтересованных узлов, а узел, получивший сообщение чужой комнаты, пересылает его владельцу.
+ * Сообщения, потерянные пока узлы расходились во мнении о владельце, догружаются из истории.
+ * Экземпляр не потокобезопасен и используется из контекста RedisVerticle
+ */
+public final class RoomOwnership {
+    private static final String NODES_KEY = "chat:nodes";
+    private static final String NODE_CHANNEL_PREFIX = "chat:node:";
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 1000;
+    private static final long DEFAULT_NODE_TIMEOUT = 5000;
+    private static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private static final String TYPE = "type";
+    private static final String NODE = "node";
+    private static final String INTEREST = "interest";
+    private static final String UNINTEREST = "uninterest";
+    private static final String ROUTE = "route";
+    private static final String DELIVER = "deliver";
+    private static final String HANDOVER = "handover";
+    private static final String NODES = "nodes";
+    private static final String HOPS = "hops";
+
+    private final Vertx vertx;
+    private final Redis redis;
+    private final String nodeId;
+    private final long heartbeatInterval;
+    private final long nodeTimeout;
+    private final ConsistentHashRing ring;
+    private final BiConsumer<String, String> delivery;
+    private final Consumer<String> recovery;
+
+    /**
+     * Комнаты с участниками на этом узле и владелец, которому был объявлен интерес
+     */
+    private final Map<String, String> localRooms = new HashMap<>();
+    /**
+     * Для комнат, которыми владеет этот узел: другие узлы, где у комнаты есть участники
+     */
+    private final Map<String, Set<String>> interest = new HashMap<>();
+
+    private long heartbeatTimer = -1;
+
+    /**
+     * @param vertx экземпляр Vert.x
+     * @param redis клиент Редиса
+     * @param config nodeId, heartbeatInterval и nodeTimeout в миллисекундах, virtualNodes
+     * @param delivery доставка сообщения участникам комнаты на этом узле: комната и сообщение
+     * @param recovery догрузка из истории комнаты, у которой сменился владелец
+     */
+    public RoomOwnership(Vertx vertx, Redis redis, JsonObject config, BiConsumer<String, String> delivery, Consumer<String> recovery) {
+        this.vertx = vertx;
+        this.redis = redis;
+        String configured = config.getString("nodeId");
+        this.nodeId = configured == null || configured.isBlank() ? UUID.randomUUID().toString() : configured;
+        this.heartbeatInterval = config.getLong("heartbeatInterval", DEFAULT_HEARTBEAT_INTERVAL);
+        this.nodeTimeout = Math.max(heartbeatInterval * 2, config.getLong("nodeTimeout", DEFAULT_NODE_TIMEOUT));
+        this.ring = new ConsistentHashRing(config.getInteger("virtualNodes", DEFAULT_VIRTUAL_NODES));
+        this.delivery = delivery;
+        this.recovery = recovery;
+    }
+
+    /**
+     * Первая отметка в списке узлов и запуск периодической отметки
+     */
+    public Future<Void> start() {
+        return heartbeat()
+            .onSuccess(v -> {
+                heartbeatTimer = vertx.setPeriodic(heartbeatInterval, id -> heartbeat());
+                System.out.println("Cluster node " + nodeId + " started, live nodes: " + ring.nodes());
+            });
+    }
+
+    /**
+     * Выход из кластера: узел сразу удаляется из списка, чтобы остальные не ждали nodeTimeout
+     */
+    public Future<Void> stop() {
+        if (heartbeatTimer != -1) {
+            vertx.cancelTimer(heartbeatTimer);
+        }
+        return redis.send(Request.cmd(Command.ZREM).arg(NODES_KEY).arg(nodeId)).mapEmpty();
+    }
+
+    /**
+     * На этом узле появился первый участник комнаты
+     * @param room идентификатор комнаты
+     */
+    public void join(String room) {
+        if (!localRooms.containsKey(room)) {
+            announce(room, ownerOf(room));
+        }
+    }
+
+    /**
+     * С этого узла ушёл последний участник комнаты
+     * @param room идентификатор комнаты
+     */
+    public void leave(String room) {
+        String owner = localRooms.remove(room);
+        if (owner == null) {
+            return;
+        }
+        if (owner.equals(nodeId)) {
+            removeInterest(room, nodeId);
+        } else {
+            sendTo(owner, envelope(UNINTEREST, room));
+        }
+    }
+
+    /**
+     * Повторное объявление всех локальных комнат их владельцам, например после обрыва связи с Редисом,
+     * за время которого владельцы могли посчитать этот узел мёртвым
+     */
+    public void reannounce() {
+        for (String room : List.copyOf(localRooms.keySet())) {
+            announce(room, ownerOf(room));
+        }
+    }
+
+    /**
+     * Публикация сообщения, отправленного клиентом этого узла.
+     * Своим участникам сообщение уходит сразу по шине, остальным узлам через владельца комнаты
+     * @param room идентификатор комнаты
+     * @param message сообщение в виде JSON строки
+     */
+    public Future<Void> publish(String room, String message) {
+        delivery.accept(room, message);
+        String owner = ownerOf(room);
+        if (owner.equals(nodeId)) {
+            return forward(room, message, null);
+        }
+        Metrics.increment("cluster.route");
+        return sendTo(owner, envelope(ROUTE, room).put(MESSAGE, message));
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Канал Редиса, в который другие узлы пишут этому узлу
+     */
+    public String channel() {
+        return NODE_CHANNEL_PREFIX + nodeId;
+    }
+
+    /**
+     * Сообщение от другого узла из канала {@link #channel()}
+     * @param payload конверт в виде JSON строки
+     */
+    public void handleNodeMessage(String payload) {
+        JsonObject json = new JsonObject(payload);
+        String room = json.getString(ROOM);
+        String node = json.getString(NODE);
+        switch (json.getString(TYPE)) {
+            case INTEREST -> interest.computeIfAbsent(room, x -> new HashSet<>()).add(node);
+            case UNINTEREST -> removeInterest(room, node);
+            case HANDOVER -> {
+                Set<String> nodes = interest.computeIfAbsent(room, x -> new HashSet<>());
+                json.getJsonArray(NODES).forEach(handed -> nodes.add((String) handed));
+            }
+            case ROUTE -> route(room, json);
+            case DELIVER -> {
+                Metrics.increment("cluster.deliver");
+                delivery.accept(room, json.getString(MESSAGE));
+            }
+            default -> System.err.println("Unknown cluster message type: " + json.getString(TYPE));
+        }
+    }
+
+    /**
+     * Сообщение, присланное как владельцу комнаты. Если по кольцу этого узла владелец другой,
+     * значит отправитель ещё не узнал о смене состава, и сообщение один раз пересылается дальше
+     */
+    private void route(String room, JsonObject json) {
+        String owner = ownerOf(room);
+        if (!owner.equals(nodeId) && json.getInteger(HOPS, 0) == 0) {
+            Metrics.increment("cluster.reroute");
+            sendTo(owner, json.put(HOPS, 1));
+            return;
+        }
+        if (localRooms.containsKey(room)) {
+            delivery.accept(room, json.getString(MESSAGE));
+        }
+        forward(room, json.getString(MESSAGE), json.getString(NODE));
+    }
+
+    /**
+     * Отметка узла и чтение живых узлов. Узлы, пропустившие отметки дольше nodeTimeout, вычищаются
+     */
+    private Future<Void> heartbeat() {
+        long now = System.currentTimeMillis();
+        String deadline = String.valueOf(now - nodeTimeout);
+        return redis.send(Request.cmd(Command.ZADD).arg(NODES_KEY).arg(now).arg(nodeId))
+            .compose(res -> redis.send(Request.cmd(Command.ZREMRANGEBYSCORE).arg(NODES_KEY).arg("-inf").arg("(" + deadline)))
+            .compose(res -> redis.send(Request.cmd(Command.ZRANGEBYSCORE).arg(NODES_KEY).arg(deadline).arg("+inf")))
+            .onSuccess(this::updateMembership)
+            .onFailure(err -> System.err.println("Cluster heartbeat failed: " + err.getMessage()))
+            .mapEmpty();
+    }
+
+    private void updateMembership(Response live) {
+        List<String> nodes = live.stream().map(Response::toString).toList();
+        if (!ring.update(nodes)) {
+            return;
+        }
+        Metrics.increment("cluster.membership.changes");
+        int moved = rebalance();
+        Metrics.counter("cluster.rebalance.rooms").add(moved);
+        System.out.println("Cluster membership changed: " + ring.nodes() + ", rooms moved: " + moved);
+    }
+
+    /**
+     * Пересчёт после смены состава узлов. Интерес переобъявляется только для комнат с новым владельцем,
+     * комнаты, ушедшие к другим узлам, передаются новому владельцу вместе с заинтересованными узлами,
+     * узлы, которых больше нет, забываются. Через два интервала отметки, когда кольца всех узлов сошлись,
+     * переехавшие локальные комнаты догружаются из истории
+     * @return сколько локальных комнат сменили владельца
+     */
+    private int rebalance() {
+        List<String> moved = new ArrayList<>();
+        for (Map.Entry<String, String> entry : Map.copyOf(localRooms).entrySet()) {
+            String owner = ownerOf(entry.getKey());
+            if (!owner.equals(entry.getValue())) {
+                announce(entry.getKey(), owner);
+                moved.add(entry.getKey());
+            }
+        }
+        Set<String> live = ring.nodes();
+        Iterator<Map.Entry<String, Set<String>>> rooms = interest.entrySet().iterator();
+        while (rooms.hasNext()) {
+            Map.Entry<String, Set<String>> entry = rooms.next();
+            entry.getValue().retainAll(live);
+            String owner = ownerOf(entry.getKey());
+            if (!entry.getValue().isEmpty() && !owner.equals(nodeId)) {
+                Metrics.increment("cluster.handover");
+                sendTo(owner, envelope(HANDOVER, entry.getKey()).put(NODES, new JsonArray(List.copyOf(entry.getValue()))));
+            }
+            if (entry.getValue().isEmpty() || !owner.equals(nodeId)) {
+                rooms.remove();
+            }
+        }
+        if (!moved.isEmpty()) {
+            vertx.setTimer(heartbeatInterval * 2, id -> moved.stream().filter(localRooms::containsKey).forEach(recovery));
+        }
+        return moved.size();
+    }
+
+    private void announce(String room, String owner) {
+        localRooms.put(room, owner);
+        if (owner.equals(nodeId)) {
+            interest.computeIfAbsent(room, x -> new HashSet<>()).add(nodeId);
+        } else {
+            sendTo(owner, envelope(INTEREST, room));
+        }
+    }
+
+    /**
+     * Рассылка владельцем по узлам с участниками комнаты, кроме себя и узла-источника
+     */
+    private Future<Void> forward(String room, String message, String origin) {
+        Set<String> nodes = interest.get(room);
+        if (nodes == null) {
+            Metrics.increment("cluster.forward.no_interest");
+            return Future.succeededFuture();
+        }
+        JsonObject deliver = envelope(DELIVER, room).put(MESSAGE, message);
+        List<Future<Void>> sends = nodes.stream()
+            .filter(node -> !node.equals(nodeId) && !node.equals(origin))
+            .map(node -> sendTo(node, deliver))
+            .toList();
+        return Future.all(sends).mapEmpty();
+    }
+
+    private void removeInterest(String room, String node) {
+        Set<String> nodes = interest.get(room);
+        if (nodes != null && nodes.remove(node) && nodes.isEmpty()) {
+            interest.remove(room);
+        }
+    }
+
+    /**
+     * Владелец комнаты, пока список узлов ещё не прочитан владельцем считается сам узел
+     */
+    private String ownerOf(String room) {
+        String owner = ring.owner(room);
+        return owner != null ? owner : nodeId;
+    }
+
+    private JsonObject envelope(String type, String room) {
+        return new JsonObject().put(TYPE, type).put(ROOM, room).put(NODE, nodeId);
+    }
+
+    private Future<Void> sendTo(String node, JsonObject envelope) {
+        return redis.send(Request.cmd(Command.PUBLISH).arg(NODE_CHANNEL_PREFIX + node).arg(envelope.encode()))
+            .onFailure(err -> System.err.println("Failed to reach node " + node + ": " + err.getMessage()))
+            .mapEmpty();
+    }
+}
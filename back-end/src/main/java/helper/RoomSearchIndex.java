@@ -0,0 +1,268 @@
+package helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Инвертированный индекс одной комнаты: слово -> {@link PostingList} позиций сообщений.
+ * Сообщения индексируются строго по порядку позиций, indexedUpTo это позиция следующего ожидаемого сообщения.
+ * Пришедшие с опережением сообщения ждут в небольшом буфере, пропущенные догружаются из истории.
+ * Для сохранения на диск отдаются только изменения с прошлого раза, полный снимок снимается с копии, поднятой с диска.
+ * Экземпляр не потокобезопасен и используется из контекста SearchVerticle
+ */
+public final class RoomSearchIndex {
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MAX_PENDING = 1024;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int DEADLINE_CHECK_MASK = 0x3FF;
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Map<String, PostingList> postings;
+    private final TreeMap<Long, String> pending = new TreeMap<>();
+    /**
+     * Слова, у которых появились позиции после прошлого {@link #changes()}
+     */
+    private final Set<String> touched = new HashSet<>();
+    private long indexedUpTo;
+    private long persistedUpTo;
+
+    /**
+     * Результат поиска: позиции от новых к старым и признак того, что поиск упёрся в бюджет времени
+     */
+    public record Result(List<Long> positions, boolean truncated) {
+    }
+
+    public RoomSearchIndex() {
+        this(new HashMap<>(), 0);
+    }
+
+    private RoomSearchIndex(Map<String, PostingList> postings, long indexedUpTo) {
+        this.postings = postings;
+        this.indexedUpTo = indexedUpTo;
+        this.persistedUpTo = indexedUpTo;
+    }
+
+    public long indexedUpTo() {
+        return indexedUpTo;
+    }
+
+    /**
+     * Сообщение для индекса. Уже проиндексированные позиции пропускаются, опередившие ждут своей очереди
+     * @param position позиция сообщения в истории комнаты
+     * @param text текст сообщения
+     */
+    public void offer(long position, String text) {
+        if (position < indexedUpTo) {
+            return;
+        }
+        if (position > indexedUpTo) {
+            if (pending.size() >= MAX_PENDING) {
+                pending.clear();
+            }
+            pending.put(position, text == null ? "" : text);
+            return;
+        }
+        add(text);
+        String next;
+        while ((next = pending.remove(indexedUpTo)) != null) {
+            add(next);
+        }
+        pending.headMap(indexedUpTo).clear();
+    }
+
+    /**
+     * Поиск сообщений, в которых есть все слова запроса. Списки позиций читаются от новых к старым,
+     * так что поиск заканчивается на limit-м совпадении, а при нехватке времени отдаёт самые новые из найденных
+     * @param query текст запроса
+     * @param limit сколько самых новых совпадений вернуть
+     * @param deadline System.nanoTime(), после которого поиск прекращается с тем, что успел найти
+     */
+    public Result search(String query, int limit, long deadline) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return new Result(List.of(), false);
+        }
+        List<PostingList> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return new Result(List.of(), false);
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(PostingList::count));
+        List<PostingList.Cursor> cursors = lists.stream().map(PostingList::cursor).toList();
+        List<Long> positions = new ArrayList<>(Math.min(limit, lists.get(0).count()));
+        int steps = 0;
+        boolean truncated = false;
+        long target = cursors.get(0).current();
+        while (target != -1 && positions.size() < limit) {
+            if ((++steps & DEADLINE_CHECK_MASK) == 0 && System.nanoTime() > deadline) {
+                truncated = true;
+                break;
+            }
+            boolean matched = true;
+            for (PostingList.Cursor cursor : cursors) {
+                long position = cursor.advance(target);
+                if (position == -1) {
+                    target = -1;
+                    matched = false;
+                    break;
+                }
+                if (position != target) {
+                    target = position;
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                positions.add(target);
+                target = cursors.get(0).next();
+            }
+        }
+        return new Result(positions, truncated);
+    }
+
+    /**
+     * Слова текста в нижнем регистре без повторов, разделители это всё кроме букв и цифр
+     * @param text текст сообщения или запроса
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+            if (token.length() >= MIN_TERM_LENGTH && token.length() <= MAX_TERM_LENGTH) {
+                terms.add(token);
+            }
+        }
+        return List.copyOf(terms);
+    }
+
+    public boolean hasChanges() {
+        return indexedUpTo > persistedUpTo;
+    }
+
+    /**
+     * Изменения с прошлого вызова: границы [from, to) проиндексированных позиций и новые позиции затронутых слов.
+     * Работа пропорциональна числу новых позиций, поэтому вызывается прямо в контексте вертикла
+     */
+    public byte[] changes() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(persistedUpTo);
+            out.writeLong(indexedUpTo);
+            out.writeInt(touched.size());
+            for (String term : touched) {
+                out.writeUTF(term);
+                postings.get(term).writeChanges(out);
+            }
+            out.flush();
+            touched.clear();
+            persistedUpTo = indexedUpTo;
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Применение изменений, записанных {@link #changes()}. Уже вошедшие в индекс изменения пропускаются
+     * @return false если изменения начинаются не там, где кончается индекс, и применить их нельзя
+     * @throws IOException если запись повреждена
+     */
+    public boolean apply(DataInputStream in) throws IOException {
+        long from = in.readLong();
+        long to = in.readLong();
+        if (to <= indexedUpTo) {
+            return true;
+        }
+        if (from != indexedUpTo) {
+            return false;
+        }
+        int terms = in.readInt();
+        for (int i = 0; i < terms; i++) {
+            postings.computeIfAbsent(in.readUTF(), x -> new PostingList()).append(in);
+        }
+        indexedUpTo = to;
+        persistedUpTo = to;
+        return true;
+    }
+
+    /**
+     * Полный снимок индекса в байтах. Снимается только с копии, поднятой с диска в executeBlocking, а не с рабочего индекса
+     */
+    public byte[] snapshot() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(indexedUpTo);
+            out.writeInt(postings.size());
+            for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Восстановление из снимка
+     * @throws IOException если снимок повреждён или другой версии, тогда индекс строится заново из истории
+     */
+    public static RoomSearchIndex restore(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_VERSION) {
+            throw new IOException("Unsupported search snapshot version");
+        }
+        long indexedUpTo = in.readLong();
+        int terms = in.readInt();
+        Map<String, PostingList> postings = new HashMap<>(Math.max(16, terms * 2));
+        for (int i = 0; i < terms; i++) {
+            postings.put(in.readUTF(), PostingList.read(in));
+        }
+        return new RoomSearchIndex(postings, indexedUpTo);
+    }
+
+    public int terms() {
+        return postings.size();
+    }
+
+    /**
+     * Сколько байт занимают списки позиций
+     */
+    public long bytes() {
+        long bytes = 0;
+        for (PostingList list : postings.values()) {
+            bytes += list.bytes();
+        }
+        return bytes;
+    }
+
+    private void add(String text) {
+        long position = indexedUpTo++;
+        for (String term : tokenize(text)) {
+            postings.computeIfAbsent(term, x -> new PostingList()).add(position);
+            touched.add(term);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package helper;
+
+import java.util.Arrays;
+
+public enum SearchEvent {
+
+    INDEX("search.index"),
+    QUERY("search.query");
+
+
+    public String getValue() {
+        return value;
+    }
+
+
+    private final String value;
+    SearchEvent(String value) {
+        this.value = value;
+    }
+
+    public static SearchEvent fromString(String str) {
+        return Arrays.stream(SearchEvent.values())
+            .filter(x -> x.value.equals(str))
+            .findFirst()
+            .orElseThrow(() -> new IllegalArgumentException("Нет такого типа"));
+    }
+}
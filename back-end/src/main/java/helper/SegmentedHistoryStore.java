@@ -0,0 +1,368 @@
+package helper;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Холодная часть истории комнат на локальном диске.
+ * У каждой комнаты свой каталог с сегментами только для дозаписи. Сегмент состоит из блоков по blockMessages сообщений,
+ * каждый блок сжат отдельно: [int count][int compressedLength][deflate([int length][utf-8 bytes] * count)].
+ * Рядом с сегментом лежит разреженный индекс .idx: на каждый блок одна запись [long position][long offset],
+ * так что чтение с любой позиции распаковывает только нужные блоки. Индексы читаются через отображение в память,
+ * блоки сегментов позиционным чтением по long смещению, поэтому сегмент может быть больше 2 ГБ.
+ * Список сегментов комнаты кэшируется и перечитывается, только когда меняется время изменения её каталога,
+ * например когда новый сегмент создал другой узел.
+ * Позиция это порядковый номер сообщения в истории комнаты с нуля.
+ * Все методы блокирующие и должны вызываться из executeBlocking
+ */
+public final class SegmentedHistoryStore {
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_ENTRY = Long.BYTES * 2;
+    private static final int BLOCK_HEADER = Integer.BYTES * 2;
+    private static final int DEFAULT_BLOCK_MESSAGES = 64;
+    private static final long DEFAULT_SEGMENT_BYTES = 8L * 1024 * 1024;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final int MAPPED_CACHE_SIZE = 256;
+    private static final int ROOM_CACHE_SIZE = 4096;
+
+    private final Path directory;
+    private final int blockMessages;
+    private final long segmentBytes;
+    private final int compressionLevel;
+
+    /**
+     * Отображённые в память индексы. Индексы запечатанных сегментов не меняются, текущий переотображается, когда вырос
+     */
+    private final Map<Path, MappedByteBuffer> mapped = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, MappedByteBuffer> eldest) {
+            return size() > MAPPED_CACHE_SIZE;
+        }
+    };
+    /**
+     * Открытые на чтение сегменты, вытесненный канал закрывается
+     */
+    private final Map<Path, FileChannel> channels = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, FileChannel> eldest) {
+            if (size() <= MAPPED_CACHE_SIZE) {
+                return false;
+            }
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+    /**
+     * Сегменты комнат вместе со временем изменения каталога, при котором они были прочитаны
+     */
+    private final Map<String, RoomSegments> rooms = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RoomSegments> eldest) {
+            return size() > ROOM_CACHE_SIZE;
+        }
+    };
+
+    private record RoomSegments(FileTime modified, TreeMap<Long, Path> byPosition) {
+    }
+
+    /**
+     * @param config directory - каталог хранилища, blockMessages, segmentBytes, compressionLevel
+     */
+    public SegmentedHistoryStore(JsonObject config) {
+        this.directory = Path.of(config.getString("directory", "history"));
+        this.blockMessages = Math.max(1, config.getInteger("blockMessages", DEFAULT_BLOCK_MESSAGES));
+        this.segmentBytes = config.getLong("segmentBytes", DEFAULT_SEGMENT_BYTES);
+        this.compressionLevel = config.getInteger("compressionLevel", DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * Позиция, следующая за последним сохранённым сообщением комнаты
+     * @param room идентификатор комнаты
+     */
+    public synchronized long end(String room) {
+        Map.Entry<Long, Path> last = segments(room).lastEntry();
+        if (last == null) {
+            return 0;
+        }
+        ByteBuffer index = map(indexOf(last.getValue()));
+        int entries = index.capacity() / INDEX_ENTRY;
+        if (entries == 0) {
+            return last.getKey();
+        }
+        long position = index.getLong((entries - 1) * INDEX_ENTRY);
+        long offset = index.getLong((entries - 1) * INDEX_ENTRY + Long.BYTES);
+        return position + readAt(last.getValue(), offset, Integer.BYTES).getInt();
+    }
+
+    /**
+     * Дозапись сообщений в конец истории комнаты, данные сбрасываются на диск до возврата
+     * @param room идентификатор комнаты
+     * @param position позиция первого сообщения, должна совпадать с {@link #end(String)}
+     * @param messages сообщения в порядке истории
+     */
+    public synchronized void append(String room, long position, List<String> messages) {
+        long end = end(room);
+        if (position != end) {
+            throw new IllegalStateException("History of room " + room + " ends at " + end + ", not at " + position);
+        }
+        try {
+            Path roomDirectory = roomDirectory(room);
+            Files.createDirectories(roomDirectory);
+            Map.Entry<Long, Path> last = segments(room).lastEntry();
+            Path segment = last == null || Files.size(last.getValue()) >= segmentBytes
+                ? roomDirectory.resolve(String.format("%020d", position) + SEGMENT_SUFFIX)
+                : last.getValue();
+            if (last == null || !segment.equals(last.getValue())) {
+                rooms.remove(room);
+            }
+            try (FileChannel data = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileChannel index = FileChannel.open(indexOf(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                index.truncate(index.size() / INDEX_ENTRY * INDEX_ENTRY);
+                long offset = data.size();
+                ByteBuffer entries = ByteBuffer.allocate((messages.size() / blockMessages + 1) * INDEX_ENTRY);
+                for (int from = 0; from < messages.size(); from += blockMessages) {
+                    List<String> block = messages.subList(from, Math.min(messages.size(), from + blockMessages));
+                    ByteBuffer encoded = encodeBlock(block);
+                    entries.putLong(position + from).putLong(offset);
+                    offset += encoded.remaining();
+                    while (encoded.hasRemaining()) {
+                        data.write(encoded, data.size());
+                    }
+                }
+                data.force(false);
+                entries.flip();
+                while (entries.hasRemaining()) {
+                    index.write(entries, index.size());
+                }
+                index.force(false);
+            }
+            mapped.remove(indexOf(segment));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Сообщения комнаты с позиции from включительно до to не включительно
+     * @param room идентификатор комнаты
+     * @param from первая позиция
+     * @param to позиция после последней
+     */
+    public synchronized List<String> read(String room, long from, long to) {
+        List<String> result = new ArrayList<>((int) Math.max(0, Math.min(to - from, 4096)));
+        if (from >= to) {
+            return result;
+        }
+        TreeMap<Long, Path> segments = segments(room);
+        Long first = segments.floorKey(from);
+        for (Path segment : segments.tailMap(first != null ? first : from).values()) {
+            ByteBuffer index = map(indexOf(segment));
+            int entries = index.capacity() / INDEX_ENTRY;
+            for (int entry = floorEntry(index, entries, from); entry < entries; entry++) {
+                long position = index.getLong(entry * INDEX_ENTRY);
+                if (position >= to) {
+                    return result;
+                }
+                long offset = index.getLong(entry * INDEX_ENTRY + Long.BYTES);
+                decodeBlock(segment, offset, position, from, to, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Последний блок, начинающийся не позже позиции, бинарным поиском по индексу
+     */
+    private static int floorEntry(ByteBuffer index, int entries, long position) {
+        int low = 0;
+        int high = entries - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (index.getLong(mid * INDEX_ENTRY) <= position) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private ByteBuffer encodeBlock(List<String> block) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(raw);
+        for (String message : block) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(raw.toByteArray());
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.size() / 2 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+            Metrics.counter("history.cold.rawBytes").add(raw.size());
+            Metrics.counter("history.cold.compressedBytes").add(compressed.size());
+            return ByteBuffer.allocate(BLOCK_HEADER + compressed.size())
+                .putInt(block.size())
+                .putInt(compressed.size())
+                .put(compressed.toByteArray())
+                .flip();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void decodeBlock(Path segment, long offset, long position, long from, long to, List<String> result) {
+        ByteBuffer header = readAt(segment, offset, BLOCK_HEADER);
+        int count = header.getInt();
+        int length = header.getInt();
+        byte[] compressed = readAt(segment, offset + BLOCK_HEADER, length).array();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(length * 4);
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(chunk);
+                if (read == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated history block at " + offset);
+                }
+                raw.write(chunk, 0, read);
+            }
+            ByteBuffer messages = ByteBuffer.wrap(raw.toByteArray());
+            for (int i = 0; i < count; i++) {
+                int size = messages.getInt();
+                if (position + i >= from && position + i < to) {
+                    result.add(new String(messages.array(), messages.position(), size, StandardCharsets.UTF_8));
+                }
+                messages.position(messages.position() + size);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted history block at " + offset, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Чтение length байт сегмента с позиции offset
+     */
+    private ByteBuffer readAt(Path segment, long offset, int length) {
+        try {
+            FileChannel channel = channels.get(segment);
+            if (channel == null) {
+                channel = FileChannel.open(segment, StandardOpenOption.READ);
+                channels.put(segment, channel);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IllegalStateException("Truncated history block at " + offset + " in " + segment);
+                }
+            }
+            return buffer.flip();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close history segment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Отображение индекса в память, кэш сбрасывается, если файл вырос с прошлого раза
+     */
+    private ByteBuffer map(Path file) {
+        try {
+            long size = Files.exists(file) ? Files.size(file) : 0;
+            MappedByteBuffer buffer = mapped.get(file);
+            if (buffer == null || buffer.capacity() != size) {
+                if (size == 0) {
+                    return ByteBuffer.allocate(0);
+                }
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                mapped.put(file, buffer);
+            }
+            return buffer.duplicate();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Сегменты комнаты по позиции первого сообщения. Каталог перечитывается, только если он изменился
+     */
+    private TreeMap<Long, Path> segments(String room) {
+        Path roomDirectory = roomDirectory(room);
+        FileTime modified;
+        try {
+            modified = Files.getLastModifiedTime(roomDirectory);
+        } catch (NoSuchFileException e) {
+            rooms.remove(room);
+            return new TreeMap<>();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        RoomSegments cached = rooms.get(room);
+        if (cached != null && cached.modified().equals(modified)) {
+            return cached.byPosition();
+        }
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(roomDirectory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX)).forEach(file -> {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        rooms.put(room, new RoomSegments(modified, segments));
+        return segments;
+    }
+
+    private Path roomDirectory(String room) {
+        return directory.resolve(Base64.getUrlEncoder().withoutPadding().encodeToString(room.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Path indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+}
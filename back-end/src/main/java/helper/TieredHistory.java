@@ -0,0 +1,302 @@
+package helper;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.client.Command;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static helper.ConstantHolder.BEFORE;
+import static helper.ConstantHolder.MESSAGES;
+import static helper.ConstantHolder.POSITION;
+
+/**
+ * История комнаты в два уровня: последние hotMessages сообщений лежат в списке Редиса, более старые
+ * фоновой задачей переносятся в {@link SegmentedHistoryStore} на диск.
+ * Счётчик cold:&lt;room&gt; хранит, сколько сообщений с начала истории уже на диске, так что позиция сообщения
+ * в истории это cold + индекс в списке. Страница истории читается одним скриптом из Редиса, а недостающее начало с диска.
+ * Переносом комнаты в каждый момент занимается только один процесс, это обеспечивает блокировка в Редисе.
+ * В режиме кластера все узлы должны смотреть в один каталог хранилища
+ */
+public final class TieredHistory {
+    private static final String OVERFLOW_KEY = "history:overflow";
+    private static final int DEFAULT_HOT_MESSAGES = 1000;
+    private static final long DEFAULT_MOVE_INTERVAL = 5000;
+    private static final int DEFAULT_MOVE_BATCH = 1000;
+    private static final int DEFAULT_ROOMS_PER_TICK = 16;
+    private static final long LOCK_TIMEOUT = 60_000;
+
+    /**
+     * KEYS[1] - список комнаты, KEYS[2] - счётчик холодных сообщений, ARGV[1] - позиция before или -1 для конца истории,
+     * ARGV[2] - размер страницы или -1 для всей истории. Возвращает {cold, start, stop, горячая часть страницы}
+     */
+    private static final String PAGE_SCRIPT = """
+        local cold = tonumber(redis.call('GET', KEYS[2]) or '0')
+        local total = cold + redis.call('LLEN', KEYS[1])
+        local before = tonumber(ARGV[1])
+        local limit = tonumber(ARGV[2])
+        local stop = total
+        if before >= 0 and before < total then
+            stop = before
+        end
+        local start = 0
+        if limit >= 0 then
+            start = math.max(0, stop - limit)
+        end
+        local hot = {}
+        local hotFrom = math.max(start, cold) - cold
+        local hotTo = stop - cold - 1
+        if hotTo >= hotFrom then
+            hot = redis.call('LRANGE', KEYS[1], hotFrom, hotTo)
+        end
+        return {cold, start, stop, hot}
+        """;
+
+    /**
+     * Снятие перенесённого начала списка и сдвиг счётчика одной атомарной операцией, чтобы читатели не видели промежуточного состояния
+     */
+    private static final String TRIM_SCRIPT = """
+        redis.call('LTRIM', KEYS[1], ARGV[1], -1)
+        return redis.call('INCRBY', KEYS[2], ARGV[1])
+        """;
+
+    /**
+     * KEYS[1] - список комнаты, KEYS[2] - счётчик холодных сообщений, ARGV - позиции.
+     * Возвращает {cold, сообщение или пустая строка для каждой позиции}, холодные позиции дочитываются с диска
+     */
+    private static final String POSITIONS_SCRIPT = """
+        local cold = tonumber(redis.call('GET', KEYS[2]) or '0')
+        local result = {cold}
+        for i = 1, #ARGV do
+            local position = tonumber(ARGV[i])
+            local message = false
+            if position >= cold then
+                message = redis.call('LINDEX', KEYS[1], position - cold)
+            end
+            result[#result + 1] = message or ''
+        end
+        return result
+        """;
+
+    private static final String UNLOCK_SCRIPT = """
+        if redis.call('GET', KEYS[1]) == ARGV[1] then
+            return redis.call('DEL', KEYS[1])
+        end
+        return 0
+        """;
+
+    private final Vertx vertx;
+    private final Redis redis;
+    private final SegmentedHistoryStore store;
+    private final boolean enabled;
+    private final int hotMessages;
+    private final long moveInterval;
+    private final int moveBatch;
+    private final int roomsPerTick;
+    private final String lockToken = UUID.randomUUID().toString();
+
+    private long moveTimer = -1;
+    private boolean moving;
+
+    /**
+     * @param vertx экземпляр Vert.x
+     * @param redis клиент Редиса
+     * @param config enabled, hotMessages, moveInterval в миллисекундах, moveBatch, roomsPerTick и настройки хранилища
+     */
+    public TieredHistory(Vertx vertx, Redis redis, JsonObject config) {
+        this.vertx = vertx;
+        this.redis = redis;
+        this.store = new SegmentedHistoryStore(config);
+        this.enabled = config.getBoolean("enabled", false);
+        this.hotMessages = Math.max(1, config.getInteger("hotMessages", DEFAULT_HOT_MESSAGES));
+        this.moveInterval = config.getLong("moveInterval", DEFAULT_MOVE_INTERVAL);
+        this.moveBatch = Math.max(1, config.getInteger("moveBatch", DEFAULT_MOVE_BATCH));
+        this.roomsPerTick = Math.max(1, config.getInteger("roomsPerTick", DEFAULT_ROOMS_PER_TICK));
+    }
+
+    public void start() {
+        if (enabled) {
+            moveTimer = vertx.setPeriodic(moveInterval, id -> moveOverflowing());
+        }
+    }
+
+    public void stop() {
+        if (moveTimer != -1) {
+            vertx.cancelTimer(moveTimer);
+        }
+    }
+
+    /**
+     * Порог длины списка, после которого комната попадает в очередь на перенос, 0 если перенос выключен
+     */
+    public int hotLimit() {
+        return enabled ? hotMessages : 0;
+    }
+
+    /**
+     * Ключ множества комнат, список которых перерос порог
+     */
+    public static String overflowKey() {
+        return OVERFLOW_KEY;
+    }
+
+    /**
+     * Страница истории, которая может начинаться на диске и заканчиваться в Редисе
+     * @param room идентификатор комнаты
+     * @param before позиция, до которой читать, или -1 для конца истории
+     * @param limit размер страницы или -1 для всей истории
+     * @return messages в порядке истории и before - позиция первого сообщения страницы, если есть более ранние
+     */
+    public Future<JsonObject> page(String room, long before, int limit) {
+        return redis.send(Request.cmd(Command.EVAL).arg(PAGE_SCRIPT).arg(2)
+                .arg(room).arg(coldKey(room)).arg(before).arg(limit))
+            .compose(res -> {
+                long cold = res.get(0).toLong();
+                long start = res.get(1).toLong();
+                long stop = res.get(2).toLong();
+                Future<List<String>> coldPart = start < cold
+                    ? vertx.executeBlocking(() -> store.read(room, start, Math.min(stop, cold)))
+                    : Future.succeededFuture(List.of());
+                return coldPart.map(coldMessages -> {
+                    if (!coldMessages.isEmpty()) {
+                        Metrics.increment("history.cold.reads");
+                        Metrics.counter("history.cold.messages").add(coldMessages.size());
+                    }
+                    JsonArray messages = new JsonArray(new ArrayList<>(coldMessages.size() + res.get(3).size()));
+                    coldMessages.forEach(message -> messages.add(new JsonObject(message)));
+                    res.get(3).forEach(message -> messages.add(new JsonObject(message.toString())));
+                    JsonObject page = new JsonObject().put(MESSAGES, messages);
+                    if (start > 0) {
+                        page.put(BEFORE, start);
+                    }
+                    return page;
+                });
+            });
+    }
+
+    /**
+     * Сообщения по позициям в истории, например для результатов поиска
+     * @param room идентификатор комнаты
+     * @param positions позиции в любом порядке
+     * @return найденные сообщения в порядке позиций запроса, каждое с полем position
+     */
+    public Future<JsonArray> messagesAt(String room, List<Long> positions) {
+        if (positions.isEmpty()) {
+            return Future.succeededFuture(new JsonArray());
+        }
+        Request request = Request.cmd(Command.EVAL).arg(POSITIONS_SCRIPT).arg(2).arg(room).arg(coldKey(room));
+        positions.forEach(request::arg);
+        return redis.send(request).compose(res -> {
+            long cold = res.get(0).toLong();
+            return vertx.executeBlocking(() -> {
+                JsonArray messages = new JsonArray();
+                for (int i = 0; i < positions.size(); i++) {
+                    long position = positions.get(i);
+                    String message = res.get(i + 1).toString();
+                    if (position < cold) {
+                        List<String> stored = store.read(room, position, position + 1);
+                        message = stored.isEmpty() ? "" : stored.get(0);
+                    }
+                    if (!message.isEmpty()) {
+                        messages.add(new JsonObject(message).put(POSITION, position));
+                    }
+                }
+                return messages;
+            });
+        });
+    }
+
+    /**
+     * Ключ счётчика сообщений комнаты, уже перенесённых на диск
+     * @param room идентификатор комнаты
+     */
+    public static String coldKey(String room) {
+        return "cold:" + room;
+    }
+
+    /**
+     * Один проход переноса: несколько комнат из очереди обрабатываются по очереди, чтобы не нагружать диск параллельно
+     */
+    private void moveOverflowing() {
+        if (moving) {
+            return;
+        }
+        moving = true;
+        redis.send(Request.cmd(Command.SRANDMEMBER).arg(OVERFLOW_KEY).arg(roomsPerTick))
+            .compose(rooms -> {
+                Future<Void> chain = Future.succeededFuture();
+                for (Response room : rooms) {
+                    chain = chain.compose(v -> moveRoom(room.toString()));
+                }
+                return chain;
+            })
+            .onFailure(err -> System.err.println("History move failed: " + err.getMessage()))
+            .onComplete(done -> moving = false);
+    }
+
+    /**
+     * Перенос начала списка комнаты на диск. Если предыдущий перенос записал файлы, но не успел обрезать список,
+     * уже записанная часть не пишется повторно, а только снимается из Редиса
+     */
+    private Future<Void> moveRoom(String room) {
+        String lockKey = "history:lock:" + room;
+        return redis.send(Request.cmd(Command.SET).arg(lockKey).arg(lockToken).arg("NX").arg("PX").arg(LOCK_TIMEOUT))
+            .compose(locked -> {
+                if (locked == null) {
+                    return Future.succeededFuture();
+                }
+                long started = System.currentTimeMillis();
+                return transfer(room)
+                    .onSuccess(moved -> {
+                        if (moved > 0) {
+                            Metrics.counter("history.moved.messages").add(moved);
+                            Metrics.record("history.move.millis", System.currentTimeMillis() - started);
+                        }
+                    })
+                    .<Void>mapEmpty()
+                    .eventually(() -> redis.send(Request.cmd(Command.EVAL).arg(UNLOCK_SCRIPT).arg(1).arg(lockKey).arg(lockToken)));
+            });
+    }
+
+    private Future<Long> transfer(String room) {
+        Future<Response> cold = redis.send(Request.cmd(Command.GET).arg(coldKey(room)));
+        Future<Long> storeEnd = vertx.executeBlocking(() -> store.end(room));
+        Future<Response> length = redis.send(Request.cmd(Command.LLEN).arg(room));
+        return Future.all(cold, storeEnd, length).compose(all -> {
+            long coldCount = cold.result() != null ? cold.result().toLong() : 0;
+            long written = storeEnd.result();
+            long len = length.result().toLong();
+            if (written < coldCount) {
+                return Future.failedFuture("Cold history of room " + room + " ends at " + written + " but Redis expects " + coldCount);
+            }
+            long already = written - coldCount;
+            long count = Math.max(already, Math.min(len - hotMessages, moveBatch));
+            if (count <= 0) {
+                return redis.send(Request.cmd(Command.SREM).arg(OVERFLOW_KEY).arg(room)).map(0L);
+            }
+            Future<Void> persisted = count > already
+                ? redis.send(Request.cmd(Command.LRANGE).arg(room).arg(already).arg(count - 1))
+                    .compose(res -> {
+                        List<String> messages = res.stream().map(Response::toString).toList();
+                        return vertx.executeBlocking(() -> {
+                            store.append(room, written, messages);
+                            return null;
+                        });
+                    })
+                : Future.succeededFuture();
+            return persisted
+                .compose(v -> redis.send(Request.cmd(Command.EVAL).arg(TRIM_SCRIPT).arg(2).arg(room).arg(coldKey(room)).arg(count)))
+                .compose(v -> len - count <= hotMessages
+                    ? redis.send(Request.cmd(Command.SREM).arg(OVERFLOW_KEY).arg(room))
+                    : Future.succeededFuture())
+                .map(count - already);
+        });
+    }
+}
@@ -0,0 +1,101 @@
+package helper;
+
+/**
+ * Типизированные команды, которые приходят от клиента по веб-сокету.
+ * Создаются {@link CommandDecoder} сразу из кадра, без промежуточного JsonObject
+ */
+public sealed interface WebSocketCommand {
+
+    WebSocketEvent event();
+
+    record Join(String token, String user, String room) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.JOIN;
+        }
+    }
+
+    /**
+     * Автором сообщения считается владелец токена, логин от клиента не принимается
+     */
+    record Message(String token, String room, String message, String date) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.MESSAGE;
+        }
+    }
+
+    record Login(String login, String password) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.LOGIN;
+        }
+    }
+
+    record Register(String login, String password) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.REGISTER;
+        }
+    }
+
+    record GetOnlineUsers() implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.GET_ONLINE_USERS;
+        }
+    }
+
+    record Auth(String token) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.AUTH;
+        }
+    }
+
+    /**
+     * @param before позиция в истории, до которой нужна страница, null для конца истории
+     * @param limit размер страницы, null для всей истории
+     */
+    record GetMessages(String room, Long before, Integer limit) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.GET_MESSAGES;
+        }
+    }
+
+    /**
+     * @param token токен пользователя, без проверенного токена поиск не выполняется
+     * @param limit сколько самых новых совпадений вернуть, null для значения по умолчанию
+     */
+    record SearchMessages(String token, String room, String query, Integer limit) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.SEARCH_MESSAGES;
+        }
+    }
+
+    /**
+     * @param seq номер последнего прочитанного сообщения комнаты
+     */
+    record MarkRead(String room, Long seq) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.MARK_READ;
+        }
+    }
+
+    record Logout(String token) implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.LOGOUT;
+        }
+    }
+
+    record GetUnreadCounts() implements WebSocketCommand {
+        @Override
+        public WebSocketEvent event() {
+            return WebSocketEvent.GET_UNREAD_COUNTS;
+        }
+    }
+}
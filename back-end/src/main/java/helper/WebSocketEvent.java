@@ -1,6 +1,9 @@
 package helper;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public enum WebSocketEvent {
     JOIN("join"),
@@ -9,17 +12,29 @@ public enum WebSocketEvent {
     REGISTER("register"),
     GET_ONLINE_USERS("getOnlineUsers"),
     AUTH("auth"),
-    GET_MESSAGES("getMessages");
+    GET_MESSAGES("getMessages"),
+    SEARCH_MESSAGES("searchMessages"),
+    MARK_READ("markRead"),
+    GET_UNREAD_COUNTS("getUnreadCounts"),
+    LOGOUT("logout");
+
+    private static final Map<String, WebSocketEvent> BY_VALUE = Arrays.stream(WebSocketEvent.values())
+        .collect(Collectors.toUnmodifiableMap(x -> x.value, Function.identity()));
 
     private final String value;
     WebSocketEvent(String value) {
         this.value = value;
     }
 
+    public String getValue() {
+        return value;
+    }
+
     public static WebSocketEvent fromString(String str) {
-        return Arrays.stream(WebSocketEvent.values())
-            .filter(x -> x.value.equals(str))
-            .findFirst()
-            .orElseThrow(() -> new IllegalArgumentException("Нет такого типа"));
+        WebSocketEvent event = str == null ? null : BY_VALUE.get(str);
+        if (event == null) {
+            throw new IllegalArgumentException("Нет такого типа");
+        }
+        return event;
     }
 }
@@ -0,0 +1,114 @@
+package helper;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.VertxModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Формат кадров между клиентом и сервером, выбирается через заголовок Sec-WebSocket-Protocol.
+ * Если клиент ничего не запросил, используется JSON
+ */
+public enum WireFormat {
+    JSON("json", new JsonFactory()),
+    CBOR("cbor", new CBORFactory());
+
+    private final String value;
+    private final ObjectMapper mapper;
+
+    WireFormat(String value, JsonFactory factory) {
+        this.value = value;
+        this.mapper = new ObjectMapper(factory).registerModule(new VertxModule());
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Список подпротоколов для настройки сервера, JSON идёт первым как формат по умолчанию
+     */
+    public static List<String> subProtocols() {
+        return Arrays.stream(WireFormat.values())
+            .map(WireFormat::getValue)
+            .toList();
+    }
+
+    /**
+     * Формат, согласованный с конкретным сокетом
+     * @param ws сокет соединение
+     */
+    public static WireFormat of(ServerWebSocket ws) {
+        return CBOR.value.equals(ws.subProtocol()) ? CBOR : JSON;
+    }
+
+    /**
+     * Потоковый парсер входящего кадра. Содержимое кадров Vert.x не копируется: парсер читает массив буфера,
+     * а если буфер прямой, то поток поверх него. Прочие реализации Buffer читаются из копии байтов
+     * @param buffer содержимое кадра
+     */
+    public JsonParser createParser(Buffer buffer) throws IOException {
+        if (!(buffer instanceof BufferImpl impl)) {
+            return mapper.getFactory().createParser(buffer.getBytes());
+        }
+        ByteBuf bytes = impl.byteBuf();
+        if (bytes.hasArray()) {
+            return mapper.getFactory().createParser(bytes.array(), bytes.arrayOffset() + bytes.readerIndex(), bytes.readableBytes());
+        }
+        return mapper.getFactory().createParser((InputStream) new ByteBufInputStream(bytes.duplicate()));
+    }
+
+    /**
+     * Кодирование исходящего события
+     * @param json событие
+     */
+    public Buffer encode(JsonObject json) {
+        if (this == JSON) {
+            return json.toBuffer();
+        }
+        try {
+            return Buffer.buffer(mapper.writeValueAsBytes(json));
+        } catch (IOException e) {
+            throw new EncodeException("Failed to encode " + value + " frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Отправка события в сокет: JSON уходит текстовым кадром, CBOR бинарным
+     * @param ws сокет соединение
+     * @param json событие
+     */
+    public void write(ServerWebSocket ws, JsonObject json) {
+        if (this == JSON) {
+            ws.writeTextMessage(json.encode());
+        } else {
+            ws.writeBinaryMessage(encode(json));
+        }
+    }
+
+    /**
+     * Отправка сообщения комнаты, закодированного один раз на все сокеты этого формата
+     * @param ws сокет соединение
+     * @param frame сообщение или пачка сообщений
+     */
+    public void write(ServerWebSocket ws, OutboundFrame frame) {
+        if (this == JSON) {
+            ws.writeTextMessage(frame.json());
+        } else {
+            ws.writeBinaryMessage(frame.cbor());
+        }
+    }
+}
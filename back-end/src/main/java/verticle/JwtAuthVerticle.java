@@ -1,32 +1,63 @@
 package verticle;
 
 import helper.AuthEvent;
+import helper.Metrics;
+import helper.RedisAuthAction;
+import helper.RevocationFilter;
+import helper.RevokedTokens;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.ThreadingModel;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.auth.PubSecKeyOptions;
+import io.vertx.ext.auth.User;
+import io.vertx.ext.auth.authentication.TokenCredentials;
 import io.vertx.ext.auth.jwt.JWTAuth;
 import io.vertx.ext.auth.jwt.JWTAuthOptions;
 import io.vertx.ext.auth.JWTOptions;
 import helper.PasswordHelper;
 
 import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static helper.ConstantHolder.ACTION;
+import static helper.ConstantHolder.ENTRY;
 import static helper.ConstantHolder.ERROR;
 import static helper.ConstantHolder.LOGIN;
 import static helper.ConstantHolder.MESSAGE;
 import static helper.ConstantHolder.OK;
 import static helper.ConstantHolder.PASSWORD;
 import static helper.ConstantHolder.REDIS_AUTH;
+import static helper.ConstantHolder.REVOKED;
 import static helper.ConstantHolder.STATUS;
 import static helper.ConstantHolder.TOKEN;
+import static helper.ConstantHolder.TTL;
+import static io.vertx.core.Future.await;
 
 /**
- * Verticle отвечающий за Аутентификацию и Регистрацию новых пользователей
+ * Verticle отвечающий за Аутентификацию и Регистрацию новых пользователей.
+ * Токены можно отозвать: отзывы хранятся в Редисе, а у узла есть общий на все экземпляры вертикла фильтр Блума по ним,
+ * так что обычная проверка токена в Редис не ходит, точная проверка нужна только при срабатывании фильтра
  */
 public class JwtAuthVerticle extends AbstractVerticle {
+    private static final String DEFAULT_SECRET = "keyboard cat";
+    private static final int DEFAULT_TOKEN_EXPIRES_IN_MINUTES = 60;
+    /**
+     * Время выдачи токена в миллисекундах: iat хранит секунды, а отзыв всех токенов пользователя
+     * не должен задевать токены, выданные в ту же секунду после него
+     */
+    private static final String ISSUED_AT_MS = "iatMs";
+
     private JWTAuth jwtAuth;
+    /**
+     * Вертикл запущен на виртуальных потоках: регистрация и вход написаны последовательно через await,
+     * проверка токена дожидается того же Future, что и на event loop
+     */
+    private boolean virtualThreads;
+    private int tokenExpiresInMinutes;
+    private RevocationFilter revoked;
 
     /**
      * Стандартный метод инициализации
@@ -36,86 +67,233 @@ public class JwtAuthVerticle extends AbstractVerticle {
         jwtAuth = JWTAuth.create(vertx, new JWTAuthOptions()
             .addPubSecKey(new PubSecKeyOptions()
                 .setAlgorithm("HS256")
-                .setBuffer("keyboard cat"))); //todo вынести в отдельный файл
+                .setBuffer(config().getString("secret", DEFAULT_SECRET))));
+        tokenExpiresInMinutes = config().getInteger("tokenExpiresInMinutes", DEFAULT_TOKEN_EXPIRES_IN_MINUTES);
+        revoked = RevocationFilter.shared(vertx, config().getJsonObject("revocation", new JsonObject()));
+
+        virtualThreads = context.threadingModel() == ThreadingModel.VIRTUAL_THREAD;
+        vertx.eventBus().<JsonObject>consumer(AuthEvent.REGISTER.getValue(), message -> {
+            if (virtualThreads) {
+                message.reply(awaitRegister(message.body()));
+            } else {
+                respond(message, register(message.body()));
+            }
+        });
+        vertx.eventBus().<JsonObject>consumer(AuthEvent.AUTHENTICATE.getValue(), message -> {
+            if (virtualThreads) {
+                message.reply(awaitAuthenticate(message.body()));
+            } else {
+                respond(message, authenticate(message.body()));
+            }
+        });
+        vertx.eventBus().<JsonObject>consumer(AuthEvent.VERIFY_TOKEN.getValue(), message -> respond(message, verifyToken(message.body())));
+        vertx.eventBus().consumer(AuthEvent.REVOKE.getValue(), this::handleRevoke);
+        // пустое сообщение значит, что отзывы могли потеряться и фильтр надо перестроить
+        vertx.eventBus().<JsonObject>consumer(AuthEvent.REVOKED.getValue(), message -> {
+            String entry = message.body().getString(ENTRY);
+            if (entry == null) {
+                revoked.rebuild();
+            } else {
+                revoked.put(entry);
+            }
+        });
+    }
 
-        vertx.eventBus().consumer(AuthEvent.REGISTER.getValue(), this::handleRegister);
-        vertx.eventBus().consumer(AuthEvent.AUTHENTICATE.getValue(), this::handleAuthenticate);
-        vertx.eventBus().consumer(AuthEvent.VERIFY_TOKEN.getValue(), this::handleVerifyToken);
+    /**
+     * Ответ на запрос. На виртуальных потоках обработчик дожидается результата через await, пока он ждёт,
+     * Vert.x запускает на этом же контексте следующие запросы. На event loop ответ уходит из колбэка
+     * @param message запрос
+     * @param reply ответ, ошибки уже превращены в {status: error}
+     */
+    private void respond(Message<JsonObject> message, Future<JsonObject> reply) {
+        if (virtualThreads) {
+            try {
+                message.reply(await(reply));
+            } catch (Exception e) {
+                message.reply(error("Request failed"));
+            }
+        } else {
+            reply.onComplete(res -> message.reply(res.succeeded() ? res.result() : error("Request failed")));
+        }
+    }
 
+    private static JsonObject error(String message) {
+        return new JsonObject().put(STATUS, ERROR).put(MESSAGE, message);
     }
 
     /**
-     * Метод прослушивания события регистрации
-     * @param message креды пользователя
+     * Регистрация: пароль хешируется здесь, в Редис уходит уже хеш
+     * @param data креды пользователя
      */
-    private void handleRegister(Message<JsonObject> message) {
-        JsonObject data = message.body();
-        String login = data.getString(LOGIN);
-        String password = data.getString(PASSWORD);
+    private Future<JsonObject> register(JsonObject data) {
+        JsonObject request = new JsonObject()
+            .put(ACTION, RedisAuthAction.REGISTER.getValue())
+            .put(LOGIN, data.getString(LOGIN))
+            .put(PASSWORD, PasswordHelper.encode(data.getString(PASSWORD).getBytes(StandardCharsets.UTF_8)));
+        return vertx.eventBus().<JsonObject>request(REDIS_AUTH, request)
+            .map(reply -> ERROR.equals(reply.body().getString(STATUS))
+                ? error(reply.body().getString(MESSAGE))
+                : new JsonObject().put(STATUS, OK))
+            .otherwise(err -> error("Registration failed"));
+    }
+
+    /**
+     * Регистрация на виртуальных потоках, тот же сценарий что и {@link #register}
+     * @param data креды пользователя
+     */
+    private JsonObject awaitRegister(JsonObject data) {
+        JsonObject request = new JsonObject()
+            .put(ACTION, RedisAuthAction.REGISTER.getValue())
+            .put(LOGIN, data.getString(LOGIN))
+            .put(PASSWORD, PasswordHelper.encode(data.getString(PASSWORD).getBytes(StandardCharsets.UTF_8)));
+        try {
+            JsonObject reply = await(vertx.eventBus().<JsonObject>request(REDIS_AUTH, request)).body();
+            return ERROR.equals(reply.getString(STATUS)) ? error(reply.getString(MESSAGE)) : new JsonObject().put(STATUS, OK);
+        } catch (Exception e) {
+            return error("Registration failed");
+        }
+    }
 
+    /**
+     * Аутентификация: при верном пароле выдаётся токен
+     * @param data креды пользователя
+     */
+    private Future<JsonObject> authenticate(JsonObject data) {
+        String login = data.getString(LOGIN);
         JsonObject request = new JsonObject()
-            .put(ACTION, "register")
+            .put(ACTION, RedisAuthAction.AUTHENTICATE.getValue())
             .put(LOGIN, login)
-            .put(PASSWORD, PasswordHelper.encode(password.getBytes(StandardCharsets.UTF_8)));
-
-        vertx.eventBus().request(REDIS_AUTH, request, reply -> {
-            if (reply.succeeded()) {
-                JsonObject body = (JsonObject) reply.result().body();
-                if(ERROR.equals(body.getString(STATUS))) {
-                    message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, body.getString(MESSAGE)));
-                } else {
-                    message.reply(new JsonObject().put(STATUS, OK));
-                }
-            } else {
-                message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Registration failed"));
-            }
-        });
+            .put(PASSWORD, data.getString(PASSWORD));
+        return vertx.eventBus().<JsonObject>request(REDIS_AUTH, request)
+            .map(reply -> OK.equals(reply.body().getString(STATUS))
+                ? new JsonObject().put(STATUS, OK).put(TOKEN, generateToken(login))
+                : error("Invalid credentials"))
+            .otherwise(err -> error("Authentication failed"));
     }
 
     /**
-     * Метод прослушивания события Аутентификации
-     * @param message креды пользователя
+     * Аутентификация на виртуальных потоках, тот же сценарий что и {@link #authenticate}
+     * @param data креды пользователя
      */
-    private void handleAuthenticate(Message<JsonObject> message) {
-        JsonObject data = message.body();
+    private JsonObject awaitAuthenticate(JsonObject data) {
         String login = data.getString(LOGIN);
-        String password = data.getString(PASSWORD);
+        JsonObject request = new JsonObject()
+            .put(ACTION, RedisAuthAction.AUTHENTICATE.getValue())
+            .put(LOGIN, login)
+            .put(PASSWORD, data.getString(PASSWORD));
+        try {
+            JsonObject reply = await(vertx.eventBus().<JsonObject>request(REDIS_AUTH, request)).body();
+            return OK.equals(reply.getString(STATUS))
+                ? new JsonObject().put(STATUS, OK).put(TOKEN, generateToken(login))
+                : error("Invalid credentials");
+        } catch (Exception e) {
+            return error("Authentication failed");
+        }
+    }
+
+    /**
+     * Проверка подписи, срока и отзыва токена
+     * @param data токен
+     */
+    private Future<JsonObject> verifyToken(JsonObject data) {
+        String token = data.getString(TOKEN, "").replaceAll("\\\"", "");
+        return jwtAuth.authenticate(new TokenCredentials(token))
+            .compose(user -> isRevoked(user).map(revoked -> revoked
+                ? error("Invalid token")
+                : new JsonObject().put(STATUS, OK).put("principal", user.principal())))
+            .otherwise(err -> error("Invalid token"));
+    }
+
+    /**
+     * Токен с идентификатором jti, по которому его можно отозвать, и временем выдачи в миллисекундах
+     * @param login владелец токена
+     */
+    private String generateToken(String login) {
+        return jwtAuth.generateToken(
+            new JsonObject().put("sub", login).put("jti", UUID.randomUUID().toString()).put(ISSUED_AT_MS, System.currentTimeMillis()),
+            new JWTOptions().setExpiresInMinutes(tokenExpiresInMinutes));
+    }
 
+    /**
+     * Проверка отзыва уже проверенного по подписи токена. Если фильтр говорит, что записи точно нет, Редис не нужен
+     * @param user пользователь из токена
+     */
+    private Future<Boolean> isRevoked(User user) {
+        JsonObject claims = claims(user);
+        String jti = claims.getString("jti");
+        String login = claims.getString("sub");
+        boolean suspicious = (jti != null && revoked.mightContain(RevokedTokens.tokenEntry(jti)))
+            || revoked.mightContain(RevokedTokens.userEntry(login));
+        if (!suspicious) {
+            return Future.succeededFuture(false);
+        }
+        Metrics.increment("auth.revocation.lookups");
         JsonObject request = new JsonObject()
-            .put(ACTION, "authenticate")
+            .put(ACTION, RedisAuthAction.CHECK_REVOKED.getValue())
+            .put("jti", jti)
             .put(LOGIN, login)
-            .put(PASSWORD, password);
-
-        vertx.eventBus().request(REDIS_AUTH, request, reply -> {
-            if (reply.succeeded()) {
-                JsonObject response = (JsonObject) reply.result().body();
-                if (OK.equals(response.getString(STATUS))) {
-                    String token = jwtAuth.generateToken(
-                        new JsonObject().put("sub", login),
-                        new JWTOptions().setExpiresInMinutes(60));
-                    message.reply(new JsonObject().put(STATUS, OK).put(TOKEN, token));
-                } else {
-                    message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Invalid credentials"));
-                }
-            } else {
-                message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed"));
+            .put(ISSUED_AT_MS, claims.getLong(ISSUED_AT_MS, TimeUnit.SECONDS.toMillis(claims.getLong("iat", 0L))));
+        return vertx.eventBus().<JsonObject>request(REDIS_AUTH, request).compose(reply -> {
+            JsonObject body = reply.body();
+            if (!OK.equals(body.getString(STATUS))) {
+                return Future.failedFuture(body.getString(MESSAGE));
             }
+            if (body.getBoolean(REVOKED)) {
+                Metrics.increment("auth.revocation.rejected");
+            }
+            return Future.succeededFuture(body.getBoolean(REVOKED));
         });
     }
 
     /**
-     * Метод для проверки токена
-     * @param message токен
+     * Отзыв токена при выходе, либо всех выданных до этого момента токенов пользователя
+     * @param message token или login
      */
-    private void handleVerifyToken(Message<JsonObject> message) {
+    private void handleRevoke(Message<JsonObject> message) {
         String token = message.body().getString(TOKEN);
-        token = token.replaceAll("\\\"", "");
-        jwtAuth.authenticate(new JsonObject().put(TOKEN, token), res -> {
-            if (res.succeeded()) {
-                message.reply(new JsonObject().put(STATUS, OK).put("principal", res.result().principal()));
-            } else {
-                message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Invalid token"));
-            }
-        });
+        String login = message.body().getString(LOGIN);
+        Future<JsonObject> request;
+        if (token != null) {
+            request = jwtAuth.authenticate(new TokenCredentials(token.replaceAll("\\\"", ""))).compose(user -> {
+                JsonObject claims = claims(user);
+                String jti = claims.getString("jti");
+                if (jti == null) {
+                    return Future.failedFuture("Token cannot be revoked");
+                }
+                long ttl = TimeUnit.SECONDS.toMillis(claims.getLong("exp", 0L)) - System.currentTimeMillis();
+                return Future.succeededFuture(revocation(RevokedTokens.tokenEntry(jti), "1", ttl));
+            });
+        } else if (login != null) {
+            long now = System.currentTimeMillis();
+            request = Future.succeededFuture(revocation(RevokedTokens.userEntry(login),
+                String.valueOf(now), TimeUnit.MINUTES.toMillis(tokenExpiresInMinutes)));
+        } else {
+            request = Future.failedFuture("Nothing to revoke");
+        }
+        request
+            .compose(revocation -> vertx.eventBus().<JsonObject>request(REDIS_AUTH, revocation).map(reply -> {
+                if (OK.equals(reply.body().getString(STATUS))) {
+                    revoked.put(revocation.getString(ENTRY));
+                }
+                return reply.body();
+            }))
+            .onSuccess(message::reply)
+            .onFailure(err -> message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Revocation failed")));
     }
+
+    /**
+     * Все поля токена: в principal попадают только собственные, а iat и exp лежат в атрибутах
+     */
+    private static JsonObject claims(User user) {
+        return user.attributes().getJsonObject("accessToken", user.principal());
+    }
+
+    private static JsonObject revocation(String entry, String value, long ttl) {
+        return new JsonObject()
+            .put(ACTION, RedisAuthAction.REVOKE.getValue())
+            .put(ENTRY, entry)
+            .put("value", value)
+            .put(TTL, ttl);
+    }
+
 }
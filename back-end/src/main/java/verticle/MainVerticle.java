@@ -1,14 +1,189 @@
 package verticle;
 
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.ThreadingModel;
+import io.vertx.core.Verticle;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Supplier;
 
+import static helper.ConstantHolder.APP_STATE;
+import static helper.ConstantHolder.READY;
+
+/**
+ * Точка входа: читает конфигурацию, запускает Vert.x и разворачивает вертиклы.
+ * Вертиклы сервисов независимы друг от друга и поднимаются параллельно, WebSocketVerticle принимает
+ * клиентов только после них. Когда всё развернуто, в общих данных выставляется флаг готовности для GET /ready
+ */
 public class MainVerticle {
-    public static void main(String[] args) {
-        Vertx vertx = Vertx.vertx();
-        vertx.deployVerticle(new JwtAuthVerticle());
-        vertx.deployVerticle(new WebSocketVerticle());
-        vertx.deployVerticle(new RedisVerticle());
-        vertx.deployVerticle(new UserStatusVerticle());
-    }
-}
\ No newline at end of file
+    private static final String CONFIG_RESOURCE = "config.json";
+    private static final String CONFIG_PATH_ENV = "CONFIG_PATH";
+    private static final String REDIS_HOST_ENV = "REDIS_HOST";
+    private static final String REDIS_PORT_ENV = "REDIS_PORT";
+    private static final String HTTP_PORT_ENV = "HTTP_PORT";
+
+    /**
+     * VIRTUAL_THREADS=true запускает JwtAuthVerticle и RedisVerticle на виртуальных потоках, нужна Java 21
+     */
+    private static final String VIRTUAL_THREADS_ENV = "VIRTUAL_THREADS";
+
+    /**
+     * CLUSTER_ENABLED=true включает распределение комнат между несколькими процессами, NODE_ID задаёт имя узла
+     */
+    private static final String CLUSTER_ENABLED_ENV = "CLUSTER_ENABLED";
+    private static final String NODE_ID_ENV = "NODE_ID";
+
+    /**
+     * HISTORY_DIR задаёт каталог холодной истории, в режиме кластера он должен быть общим для всех узлов
+     */
+    private static final String HISTORY_DIR_ENV = "HISTORY_DIR";
+
+    /**
+     * Разделы, вертиклы которых можно разворачивать в нескольких экземплярах: у них нет состояния в полях.
+     * RedisVerticle, UserStatusVerticle и SearchVerticle держат подписки, таймеры и индексы на экземпляр
+     */
+    private static final Set<String> SCALABLE = Set.of("auth", "webSocket");
+
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        JsonObject config = loadConfig();
+        checkInstances(config);
+        JsonObject vertxConfig = section(config, "vertx");
+        VertxOptions vertxOptions = new VertxOptions()
+            .setWorkerPoolSize(vertxConfig.getInteger("workerPoolSize", VertxOptions.DEFAULT_WORKER_POOL_SIZE));
+        int eventLoops = vertxConfig.getInteger("eventLoopPoolSize", 0);
+        if (eventLoops > 0) {
+            vertxOptions.setEventLoopPoolSize(eventLoops);
+        }
+        Vertx vertx = Vertx.vertx(vertxOptions);
+        logPhase("vertx", start);
+
+        ThreadingModel storageThreading = config.getBoolean("virtualThreads", false)
+            ? ThreadingModel.VIRTUAL_THREAD
+            : ThreadingModel.EVENT_LOOP;
+
+        long services = System.nanoTime();
+        Future.all(
+                deploy(vertx, JwtAuthVerticle::new, section(config, "auth"), storageThreading),
+                deploy(vertx, RedisVerticle::new, section(config, "redis"), storageThreading),
+                deploy(vertx, UserStatusVerticle::new, section(config, "userStatus"), ThreadingModel.EVENT_LOOP),
+                deploy(vertx, SearchVerticle::new, section(config, "search"), ThreadingModel.EVENT_LOOP))
+            .onSuccess(v -> logPhase("services", services))
+            .compose(v -> {
+                long webSocket = System.nanoTime();
+                JsonObject webSocketConfig = section(config, "webSocket");
+                if (webSocketConfig.getInteger("instances", 0) <= 0) {
+                    webSocketConfig.put("instances", vertxOptions.getEventLoopPoolSize());
+                }
+                return deploy(vertx, WebSocketVerticle::new, webSocketConfig, ThreadingModel.EVENT_LOOP)
+                    .onSuccess(id -> logPhase("webSocket", webSocket));
+            })
+            .onSuccess(v -> {
+                vertx.sharedData().getLocalMap(APP_STATE).put(READY, true);
+                logPhase("startup", start);
+            })
+            .onFailure(err -> {
+                System.err.println("Deployment failed: " + err.getMessage());
+                vertx.close().onComplete(closed -> System.exit(1));
+            });
+    }
+
+    /**
+     * Развёртывание вертикла с числом экземпляров и моделью потоков из его раздела конфигурации
+     * @param vertx экземпляр Vert.x
+     * @param supplier фабрика вертикла
+     * @param config раздел конфигурации вертикла
+     * @param threadingModel модель потоков
+     */
+    private static Future<String> deploy(Vertx vertx, Supplier<Verticle> supplier, JsonObject config, ThreadingModel threadingModel) {
+        return vertx.deployVerticle(supplier, new DeploymentOptions()
+            .setConfig(config)
+            .setInstances(Math.max(1, config.getInteger("instances", 1)))
+            .setThreadingModel(threadingModel));
+    }
+
+    /**
+     * Проверка до запуска Vert.x, что instances задан только для вертиклов без состояния
+     * @param config вся конфигурация
+     * @throws IllegalArgumentException если раздел с состоянием просит больше одного экземпляра
+     */
+    private static void checkInstances(JsonObject config) {
+        for (String name : config.fieldNames()) {
+            Object section = config.getValue(name);
+            if (!SCALABLE.contains(name) && section instanceof JsonObject json && json.containsKey("instances")
+                && json.getInteger("instances") != 1) {
+                throw new IllegalArgumentException("Section '" + name + "' does not support \"instances\", only "
+                    + String.join(", ", SCALABLE.stream().sorted().toList()) + " can be scaled");
+            }
+        }
+    }
+
+    /**
+     * Конфигурация берётся из файла CONFIG_PATH или из config.json в ресурсах,
+     * адрес Редиса, порт, режим потоков и параметры узла кластера можно переопределить переменными окружения
+     */
+    private static JsonObject loadConfig() throws IOException {
+        String path = System.getenv(CONFIG_PATH_ENV);
+        JsonObject config;
+        if (path != null) {
+            config = new JsonObject(Files.readString(Path.of(path), StandardCharsets.UTF_8));
+        } else {
+            try (InputStream in = MainVerticle.class.getClassLoader().getResourceAsStream(CONFIG_RESOURCE)) {
+                config = in != null ? new JsonObject(new String(in.readAllBytes(), StandardCharsets.UTF_8)) : new JsonObject();
+            }
+        }
+        String redisHost = System.getenv(REDIS_HOST_ENV);
+        if (redisHost != null) {
+            String redisPort = System.getenv().getOrDefault(REDIS_PORT_ENV, "6379");
+            section(config, "redis").put("connectionString", "redis://" + redisHost + ":" + redisPort);
+        }
+        String httpPort = System.getenv(HTTP_PORT_ENV);
+        if (httpPort != null) {
+            section(config, "webSocket").put("port", Integer.parseInt(httpPort));
+        }
+        String virtualThreads = System.getenv(VIRTUAL_THREADS_ENV);
+        if (virtualThreads != null) {
+            config.put("virtualThreads", Boolean.parseBoolean(virtualThreads));
+        }
+        String clusterEnabled = System.getenv(CLUSTER_ENABLED_ENV);
+        if (clusterEnabled != null) {
+            section(section(config, "redis"), "cluster").put("enabled", Boolean.parseBoolean(clusterEnabled));
+        }
+        String nodeId = System.getenv(NODE_ID_ENV);
+        if (nodeId != null) {
+            section(section(config, "redis"), "cluster").put("nodeId", nodeId);
+        }
+        String historyDir = System.getenv(HISTORY_DIR_ENV);
+        if (historyDir != null) {
+            section(section(config, "redis"), "history").put("directory", historyDir);
+        }
+        return config;
+    }
+
+    /**
+     * Раздел конфигурации, отсутствующий раздел создаётся пустым
+     * @param config вся конфигурация
+     * @param name имя раздела
+     */
+    private static JsonObject section(JsonObject config, String name) {
+        JsonObject section = config.getJsonObject(name);
+        if (section == null) {
+            section = new JsonObject();
+            config.put(name, section);
+        }
+        return section;
+    }
+
+    private static void logPhase(String phase, long startNanos) {
+        System.out.println("Startup phase '" + phase + "' took " + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+    }
+}
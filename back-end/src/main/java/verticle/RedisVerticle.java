@@ -1,65 +1,166 @@
 package verticle;
 
+import helper.MessageSequence;
+import helper.Metrics;
+import helper.AuthEvent;
 import helper.PasswordHelper;
+import helper.PubSubSubscriber;
+import helper.ReadMarkers;
 import helper.RedisActionEvent;
 import helper.RedisAuthAction;
+import helper.RevokedTokens;
+import helper.RoomOwnership;
+import helper.SearchEvent;
+import helper.TieredHistory;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.ThreadingModel;
 import io.vertx.core.eventbus.Message;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.redis.client.Command;
 import io.vertx.redis.client.Redis;
-import io.vertx.redis.client.RedisConnection;
 import io.vertx.redis.client.RedisOptions;
 import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import static helper.ConstantHolder.ACTION;
+import static helper.ConstantHolder.BEFORE;
+import static helper.ConstantHolder.COUNTS;
+import static helper.ConstantHolder.ENTRIES;
+import static helper.ConstantHolder.ENTRY;
 import static helper.ConstantHolder.ERROR;
+import static helper.ConstantHolder.LIMIT;
 import static helper.ConstantHolder.LOGIN;
 import static helper.ConstantHolder.MESSAGE;
 import static helper.ConstantHolder.MESSAGES;
 import static helper.ConstantHolder.OK;
 import static helper.ConstantHolder.PASSWORD;
+import static helper.ConstantHolder.POSITION;
 import static helper.ConstantHolder.REDIS_ACTION;
 import static helper.ConstantHolder.REDIS_AUTH;
+import static helper.ConstantHolder.REDIS_PING;
+import static helper.ConstantHolder.REVOKED;
 import static helper.ConstantHolder.ROOM;
+import static helper.ConstantHolder.SEQ;
 import static helper.ConstantHolder.STATUS;
+import static helper.ConstantHolder.TTL;
 import static helper.ConstantHolder.WS_ID;
+import static io.vertx.core.Future.await;
 
 /**
  * Вертикл отвечающий за работу с Редисом
  */
 public class RedisVerticle extends AbstractVerticle {
+    private static final String DEFAULT_CONNECTION_STRING = "redis://localhost:6379";
+    private static final int DEFAULT_MAX_POOL_SIZE = 128;
+    private static final int DEFAULT_MAX_WAITING = 512;
+    private static final int DEFAULT_POOL_RECYCLE_TIMEOUT = 180_000;
+    private static final int DEFAULT_MAX_RECOVERED_MESSAGES = 1000;
+    private static final long DEFAULT_GAP_TIMEOUT = 200;
+
     private Redis redis;
+    /**
+     * Вертикл запущен на виртуальных потоках: регистрация, вход и публикация написаны последовательно через await,
+     * остальные обработчики дожидаются того же Future, что и на event loop
+     */
+    private boolean virtualThreads;
+    /**
+     * Распределение комнат между узлами, null если бэкенд запущен одним процессом
+     */
+    private RoomOwnership ownership;
+    /**
+     * Общее соединение pub/sub на все комнаты этого узла с переподключением
+     */
+    private PubSubSubscriber subscriber;
+    /**
+     * История комнат: свежие сообщения в Редисе, старые на диске
+     */
+    private TieredHistory history;
+    /**
+     * Отметки прочтения пользователей, обновления копятся и уходят в Редис пачками
+     */
+    private ReadMarkers markers;
+    /**
+     * Записи об отозванных токенах
+     */
+    private RevokedTokens revokedTokens;
+    private int maxRecoveredMessages;
+    /**
+     * Сколько миллисекунд сообщения ждут пропущенный номер, прежде чем комната догружается из истории
+     */
+    private long gapTimeout;
 
     /**
-     * Эти 3 мапы служат для того, что бы реализвать корректную подписку на канал сообщений и последующее закрытие конекшена к базе
+     * Эти 2 мапы служат для того, что бы реализвать корректную подписку на канал сообщений и последующую отписку
      */
     private final Map<String, Set<String>> roomSubscriptions = new HashMap<>();
-    private final Map<String, RedisConnection> redisConnections = new HashMap<>();
     private final Map<String, Set<String>> wsSubscriptions = new HashMap<>();
+    /**
+     * Номер последнего доставленного сообщения по каждой открытой комнате, по нему догружается пропущенное после обрыва
+     */
+    private final Map<String, Long> lastSeq = new HashMap<>();
+    /**
+     * Комнаты, для которых идёт догрузка: пришедшие в это время сообщения ждут, пока не будут доставлены пропущенные
+     */
+    private final Map<String, List<String>> recovering = new HashMap<>();
+    /**
+     * Сообщения, обогнавшие предыдущие по номеру: в режиме кластера своё сообщение доставляется сразу,
+     * а более раннее чужое может прийти позже через владельца. Они ждут недостающие номера, отсортированные по seq
+     */
+    private final Map<String, TreeMap<Long, String>> outOfOrder = new HashMap<>();
 
     /**
-     * Стандартный метод инициализации
+     * Стандартный метод инициализации, в режиме кластера узел считается запущенным после вступления в кластер
      */
     @Override
-    public void start() {
+    public void start(Promise<Void> startPromise) {
         RedisOptions options = new RedisOptions()
-            .setConnectionString("redis://localhost:6379") //todo вынести в файлик конфигурации
-            .setMaxPoolSize(128)
-            .setMaxWaitingHandlers(512);
+            .setConnectionString(config().getString("connectionString", DEFAULT_CONNECTION_STRING))
+            .setMaxPoolSize(config().getInteger("maxPoolSize", DEFAULT_MAX_POOL_SIZE))
+            .setMaxPoolWaiting(config().getInteger("maxPoolWaiting", DEFAULT_MAX_WAITING))
+            .setMaxWaitingHandlers(config().getInteger("maxWaitingHandlers", DEFAULT_MAX_WAITING))
+            .setPoolRecycleTimeout(config().getInteger("poolRecycleTimeout", DEFAULT_POOL_RECYCLE_TIMEOUT));
         redis = Redis.createClient(vertx, options);
+        revokedTokens = new RevokedTokens(redis);
+        virtualThreads = context.threadingModel() == ThreadingModel.VIRTUAL_THREAD;
+
+        vertx.eventBus().consumer(REDIS_PING, this::handlePing);
 
         vertx.eventBus().consumer(REDIS_AUTH, message -> {
             JsonObject json = (JsonObject) message.body();
             switch (RedisAuthAction.fromString(json.getString(ACTION))) {
-                case REGISTER -> handleRegister(message, json);
-                case AUTHENTICATE -> handleAuthenticate(message, json);
+                case REGISTER -> {
+                    if (virtualThreads) {
+                        message.reply(awaitRegister(json));
+                    } else {
+                        respond(message, register(json));
+                    }
+                }
+                case AUTHENTICATE -> {
+                    if (virtualThreads) {
+                        message.reply(awaitAuthenticate(json));
+                    } else {
+                        respond(message, authenticate(json));
+                    }
+                }
+                case REVOKE -> respond(message, revokedTokens.revoke(json.getString(ENTRY), json.getString("value"), json.getLong(TTL))
+                    .map(v -> new JsonObject().put(STATUS, OK))
+                    .otherwise(err -> error("Revocation failed")));
+                case CHECK_REVOKED -> respond(message, revokedTokens.isRevoked(json.getString("jti"), json.getString(LOGIN), json.getLong("iatMs", 0L))
+                    .map(revoked -> new JsonObject().put(STATUS, OK).put(REVOKED, revoked))
+                    .otherwise(err -> error("Revocation check failed")));
+                case LIST_REVOKED -> respond(message, revokedTokens.entries()
+                    .map(entries -> new JsonObject().put(STATUS, OK).put(ENTRIES, entries))
+                    .otherwise(err -> error("Revocation list failed")));
                 default -> message.fail(1, "Unknown action");
             }
         });
@@ -70,65 +171,172 @@ public class RedisVerticle extends AbstractVerticle {
             String wsId = json.getString(WS_ID);
 
             switch (RedisActionEvent.fromString(json.getString(ACTION))) {
-                case SUBSCRIBE -> handleSubscribe(room, wsId);
+                case SUBSCRIBE -> {
+                    handleSubscribe(room, wsId);
+                    if (json.getString(LOGIN) != null) {
+                        markers.join(json.getString(LOGIN), room)
+                            .onFailure(err -> System.err.println("Failed to set read marker of room " + room + ": " + err.getMessage()));
+                    }
+                }
                 case UNSUBSCRIBE -> handleUnsubscribe(wsId);
-                case PUBLISH -> handlePublish(room, json.getString(MESSAGE));
-                case GET_MESSAGES -> getMessagesFromRoom(message, room);
+                case PUBLISH -> {
+                    if (virtualThreads) {
+                        awaitPublish(room, json.getString(MESSAGE));
+                    } else {
+                        publish(room, json.getString(MESSAGE));
+                    }
+                }
+                case GET_MESSAGES -> respond(message, messagesFromRoom(json));
+                case GET_MESSAGES_AT -> respond(message, history.messagesAt(room, json.getJsonArray(POSITION).stream()
+                        .map(position -> ((Number) position).longValue())
+                        .toList())
+                    .map(messages -> new JsonObject().put(STATUS, OK).put(MESSAGES, messages))
+                    .otherwise(err -> error("Get messages failed")));
+                case MARK_READ -> markers.markRead(json.getString(LOGIN), room, json.getLong(SEQ));
+                case GET_UNREAD_COUNTS -> respond(message, markers.unreadCounts(json.getString(LOGIN))
+                    .map(counts -> new JsonObject().put(STATUS, OK).put(COUNTS, counts))
+                    .otherwise(err -> error("Get unread counts failed")));
                 default -> message.fail(1, "Unknown action");
             }
         });
+
+        history = new TieredHistory(vertx, redis, config().getJsonObject("history", new JsonObject()));
+        history.start();
+        markers = new ReadMarkers(vertx, redis, config().getJsonObject("readMarkers", new JsonObject()));
+        markers.start();
+
+        JsonObject pubsub = config().getJsonObject("pubsub", new JsonObject());
+        maxRecoveredMessages = pubsub.getInteger("maxRecoveredMessages", DEFAULT_MAX_RECOVERED_MESSAGES);
+        gapTimeout = pubsub.getLong("gapTimeout", DEFAULT_GAP_TIMEOUT);
+        subscriber = new PubSubSubscriber(vertx, redis, pubsub, this::handleChannelMessage, this::recoverGaps);
+        subscriber.subscribe(RevokedTokens.CHANNEL);
+
+        JsonObject cluster = config().getJsonObject("cluster", new JsonObject());
+        if (cluster.getBoolean("enabled", false)) {
+            ownership = new RoomOwnership(vertx, redis, cluster, this::deliverToRoom, room -> {
+                if (lastSeq.containsKey(room) && !recovering.containsKey(room)) {
+                    recoverRoom(room);
+                }
+            });
+            subscriber.subscribe(ownership.channel());
+            subscriber.start().compose(v -> ownership.start()).onComplete(startPromise);
+        } else {
+            subscriber.start().onFailure(err -> System.err.println("Redis pub/sub is not available yet: " + err.getMessage()));
+            startPromise.complete();
+        }
+    }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        history.stop();
+        Future<Void> leave = ownership != null ? ownership.stop() : Future.succeededFuture();
+        Future.join(leave, markers.stop()).<Void>mapEmpty().eventually(() -> subscriber.close()).onComplete(stopPromise);
+    }
+
+    /**
+     * Ответ на запрос. На виртуальных потоках обработчик дожидается результата через await, пока он ждёт,
+     * Vert.x запускает на этом же контексте обработку следующих запросов, так что ответы могут уйти в другом порядке.
+     * На event loop ответ уходит из колбэка
+     *
+     * @param message запрос
+     * @param reply   ответ, ошибки уже превращены в {status: error}
+     */
+    private void respond(Message<Object> message, Future<JsonObject> reply) {
+        if (virtualThreads) {
+            try {
+                message.reply(await(reply));
+            } catch (Exception e) {
+                message.reply(error("Request failed"));
+            }
+        } else {
+            reply.onComplete(res -> message.reply(res.succeeded() ? res.result() : error("Request failed")));
+        }
+    }
+
+    private static JsonObject error(String message) {
+        return new JsonObject().put(STATUS, ERROR).put(MESSAGE, message);
+    }
+
+    /**
+     * Проверка доступности Редиса для пробы готовности
+     *
+     * @param message сообщение, по которому отправляется ответ
+     */
+    private void handlePing(Message<Object> message) {
+        redis.send(Request.cmd(Command.PING))
+            .onSuccess(res -> message.reply(new JsonObject().put(STATUS, OK)))
+            .onFailure(err -> message.fail(1, err.getMessage()));
     }
 
     /**
      * Метод для регистрации новых пользователей, перед регистрацией метод проверяет есть ли уже Юзер с таким логином
      *
-     * @param message сообщение, по которому отправляюбтся данные назад
-     * @param data    креды пользователя
-     */
-    private void handleRegister(Message<Object> message, JsonObject data) {
-        String login = data.getString(LOGIN);
-        String password = data.getString(PASSWORD);
-
-        String userKey = "user:" + login;
-
-        redis.send(Request.cmd(Command.HEXISTS).arg(userKey).arg(PASSWORD)).onSuccess(exists -> {
-            if (exists.toInteger() == 0) {
-                redis.send(Request.cmd(Command.HSET)
-                    .arg(userKey)
-                    .arg(PASSWORD)
-                    .arg(password)).onSuccess(res -> {
-                    message.reply(new JsonObject().put(STATUS, OK));
-                }).onFailure(err -> {
-                    message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Registration failed"));
-                });
-            } else {
-                message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "User already exists"));
-            }
-        }).onFailure(err -> {
-            message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Failed to check user existence"));
+     * @param data креды пользователя
+     */
+    private Future<JsonObject> register(JsonObject data) {
+        String userKey = "user:" + data.getString(LOGIN);
+        return redis.send(Request.cmd(Command.HEXISTS).arg(userKey).arg(PASSWORD)).transform(exists -> {
+            if (exists.failed()) {
+                return Future.succeededFuture(error("Failed to check user existence"));
+            }
+            if (exists.result().toInteger() != 0) {
+                return Future.succeededFuture(error("User already exists"));
+            }
+            return redis.send(Request.cmd(Command.HSET).arg(userKey).arg(PASSWORD).arg(data.getString(PASSWORD)))
+                .map(res -> new JsonObject().put(STATUS, OK))
+                .otherwise(err -> error("Registration failed"));
         });
     }
 
+    /**
+     * Регистрация на виртуальных потоках, тот же сценарий что и {@link #register}
+     *
+     * @param data креды пользователя
+     */
+    private JsonObject awaitRegister(JsonObject data) {
+        String userKey = "user:" + data.getString(LOGIN);
+        try {
+            if (await(redis.send(Request.cmd(Command.HEXISTS).arg(userKey).arg(PASSWORD))).toInteger() != 0) {
+                return error("User already exists");
+            }
+        } catch (Exception e) {
+            return error("Failed to check user existence");
+        }
+        try {
+            await(redis.send(Request.cmd(Command.HSET).arg(userKey).arg(PASSWORD).arg(data.getString(PASSWORD))));
+            return new JsonObject().put(STATUS, OK);
+        } catch (Exception e) {
+            return error("Registration failed");
+        }
+    }
+
     /**
      * Метод для проверки пароля пользователя для Аутентификации
      *
-     * @param message сообщение по которому можно отправить обратный ответ
-     * @param data    креды пользователя
+     * @param data креды пользователя
      */
-    private void handleAuthenticate(Message<Object> message, JsonObject data) {
-        String login = data.getString(LOGIN);
-        String password = data.getString(PASSWORD);
+    private Future<JsonObject> authenticate(JsonObject data) {
+        return redis.send(Request.cmd(Command.HGET).arg("user:" + data.getString(LOGIN)).arg(PASSWORD))
+            .map(res -> res != null && PasswordHelper.isValid(res.toBytes(), data.getString(PASSWORD))
+                ? new JsonObject().put(STATUS, OK)
+                : error("Invalid credentials"))
+            .otherwise(err -> error("Authentication failed"));
+    }
 
-        redis.send(Request.cmd(Command.HGET)
-            .arg("user:" + login).arg(PASSWORD)).onSuccess(res -> {
-            if (res != null && PasswordHelper.isValid(res.toBytes(), password)) {
-                message.reply(new JsonObject().put(STATUS, OK));
-            } else {
-                message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Invalid credentials"));
-            }
-        }).onFailure(err -> {
-            message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed"));
-        });
+    /**
+     * Проверка пароля на виртуальных потоках
+     *
+     * @param data креды пользователя
+     */
+    private JsonObject awaitAuthenticate(JsonObject data) {
+        try {
+            Response res = await(redis.send(Request.cmd(Command.HGET).arg("user:" + data.getString(LOGIN)).arg(PASSWORD)));
+            return res != null && PasswordHelper.isValid(res.toBytes(), data.getString(PASSWORD))
+                ? new JsonObject().put(STATUS, OK)
+                : error("Invalid credentials");
+        } catch (Exception e) {
+            return error("Authentication failed");
+        }
     }
 
     /**
@@ -144,31 +352,27 @@ public class RedisVerticle extends AbstractVerticle {
         wsSubscriptions.putIfAbsent(wsId, new HashSet<>());
         wsSubscriptions.get(wsId).add(room);
 
-        if (!redisConnections.containsKey(room)) {
-            redis.connect(onConnect -> {
-                if (onConnect.succeeded()) {
-                    RedisConnection connection = onConnect.result();
-                    connection.handler(message -> {
-                        if (message.size() > 0 && MESSAGE.equals(message.get(0).toString())) {
-                            String receivedMessage = message.get(2).toString();
-                            JsonObject receivedJson = new JsonObject(receivedMessage);
-                            String receivedRoom = receivedJson.getString(ROOM);
-                            vertx.eventBus().publish("room." + receivedRoom, receivedMessage);
-                        }
-                    });
+        if (!lastSeq.containsKey(room)) {
+            openRoom(room);
+        }
+    }
 
-                    connection.send(Request.cmd(Command.SUBSCRIBE).arg(room), res -> {
-                        if (res.succeeded()) {
-                            redisConnections.put(room, connection);
-                            System.out.println("Subscribed to Redis channel: " + room);
-                        } else {
-                            System.err.println("Failed to subscribe to Redis channel: " + res.cause().getMessage());
-                        }
-                    });
-                } else {
-                    System.err.println("Failed to connect to Redis: " + onConnect.cause().getMessage());
-                }
-            });
+    /**
+     * Первый участник комнаты на этом узле: запоминаем текущий номер сообщений и начинаем получать сообщения комнаты
+     *
+     * @param room идентификатор комнаты
+     */
+    private void openRoom(String room) {
+        lastSeq.put(room, 0L);
+        redis.send(Request.cmd(Command.GET).arg(MessageSequence.key(room))).onSuccess(res -> {
+            if (res != null) {
+                lastSeq.computeIfPresent(room, (key, seq) -> Math.max(seq, res.toLong()));
+            }
+        }).onFailure(err -> System.err.println("Failed to read sequence of room " + room + ": " + err.getMessage()));
+        if (ownership != null) {
+            ownership.join(room);
+        } else {
+            subscriber.subscribe(room);
         }
     }
 
@@ -187,16 +391,13 @@ public class RedisVerticle extends AbstractVerticle {
                     wsSet.remove(wsId);
                     if (wsSet.isEmpty()) {
                         roomSubscriptions.remove(room);
-                        RedisConnection connection = redisConnections.remove(room);
-                        if (connection != null) {
-                            connection.send(Request.cmd(Command.UNSUBSCRIBE).arg(room), res -> {
-                                if (res.succeeded()) {
-                                    connection.close();
-                                    System.out.println("Unsubscribed from Redis channel: " + room);
-                                } else {
-                                    System.err.println("Failed to unsubscribe from Redis channel: " + res.cause().getMessage());
-                                }
-                            });
+                        lastSeq.remove(room);
+                        recovering.remove(room);
+                        outOfOrder.remove(room);
+                        if (ownership != null) {
+                            ownership.leave(room);
+                        } else {
+                            subscriber.unsubscribe(room);
                         }
                     }
                 }
@@ -206,42 +407,268 @@ public class RedisVerticle extends AbstractVerticle {
         }
     }
 
+    /**
+     * Сообщение из соединения pub/sub: в обычном режиме канал это комната, в режиме кластера канал узла.
+     * Отзывы токенов расходятся всем вертиклам аутентификации этого узла
+     *
+     * @param channel канал Редиса
+     * @param payload текст сообщения
+     */
+    private void handleChannelMessage(String channel, String payload) {
+        if (RevokedTokens.CHANNEL.equals(channel)) {
+            vertx.eventBus().publish(AuthEvent.REVOKED.getValue(), new JsonObject().put(ENTRY, payload));
+        } else if (ownership != null) {
+            ownership.handleNodeMessage(payload);
+        } else {
+            deliverToRoom(channel, payload);
+        }
+    }
+
+    /**
+     * Доставка сообщения участникам комнаты на этом узле строго по порядку номеров.
+     * Номер lastSeq доставлен вместе со всеми предыдущими, поэтому отбрасываются только настоящие повторы,
+     * например от догрузки после обрыва. Сообщение с пропуском перед ним откладывается, пока пропуск не заполнится;
+     * если за gapTimeout этого не случилось, комната догружается из истории
+     *
+     * @param room    идентификатор комнаты
+     * @param message сообщение в виде JSON строки
+     */
+    private void deliverToRoom(String room, String message) {
+        List<String> buffered = recovering.get(room);
+        if (buffered != null) {
+            buffered.add(message);
+            return;
+        }
+        long seq = MessageSequence.of(message);
+        Long last = lastSeq.get(room);
+        if (seq <= 0 || last == null) {
+            vertx.eventBus().publish("room." + room, message);
+            return;
+        }
+        if (seq <= last) {
+            Metrics.increment("redis.pubsub.duplicates");
+            return;
+        }
+        if (last > 0 && seq > last + 1) {
+            TreeMap<Long, String> pending = outOfOrder.get(room);
+            if (pending == null) {
+                TreeMap<Long, String> created = new TreeMap<>();
+                outOfOrder.put(room, created);
+                vertx.setTimer(gapTimeout, id -> fillGap(room, created));
+                pending = created;
+            }
+            pending.put(seq, message);
+            Metrics.increment("redis.pubsub.reordered");
+            return;
+        }
+        lastSeq.put(room, seq);
+        vertx.eventBus().publish("room." + room, message);
+        TreeMap<Long, String> pending = outOfOrder.get(room);
+        if (pending != null) {
+            releasePending(room, pending, false);
+        }
+    }
+
+    /**
+     * Доставка отложенных сообщений, чьи номера теперь идут подряд
+     *
+     * @param room    идентификатор комнаты
+     * @param pending отложенные сообщения комнаты
+     * @param skipGap доставить всё, даже если пропуск так и не заполнился
+     */
+    private void releasePending(String room, TreeMap<Long, String> pending, boolean skipGap) {
+        long last = lastSeq.get(room);
+        while (!pending.isEmpty() && (skipGap || pending.firstKey() <= last + 1)) {
+            Map.Entry<Long, String> next = pending.pollFirstEntry();
+            if (next.getKey() > last) {
+                if (next.getKey() > last + 1) {
+                    Metrics.increment("redis.pubsub.gaps.skipped");
+                }
+                last = next.getKey();
+                vertx.eventBus().publish("room." + room, next.getValue());
+            }
+        }
+        lastSeq.put(room, last);
+        if (pending.isEmpty()) {
+            outOfOrder.remove(room, pending);
+        }
+    }
+
+    /**
+     * Пропуск не заполнился за gapTimeout: недостающие сообщения догружаются из истории,
+     * а если их там нет, отложенные доставляются как есть
+     *
+     * @param room    идентификатор комнаты
+     * @param pending отложенные сообщения, для которых был заведён таймер
+     */
+    private void fillGap(String room, TreeMap<Long, String> pending) {
+        if (outOfOrder.get(room) != pending) {
+            return;
+        }
+        if (recovering.containsKey(room)) {
+            vertx.setTimer(gapTimeout, id -> fillGap(room, pending));
+            return;
+        }
+        recoverRoom(room).onComplete(done -> {
+            if (outOfOrder.get(room) == pending && lastSeq.containsKey(room)) {
+                releasePending(room, pending, true);
+            }
+        });
+    }
+
+    /**
+     * После восстановления соединения pub/sub по каждой открытой комнате догружаются сообщения, опубликованные во время обрыва,
+     * а фильтры отозванных токенов перестраиваются, так как отзывы за время обрыва до узла не дошли
+     */
+    private void recoverGaps() {
+        vertx.eventBus().publish(AuthEvent.REVOKED.getValue(), new JsonObject());
+        if (ownership != null) {
+            ownership.reannounce();
+        }
+        long started = System.currentTimeMillis();
+        List<Future<Void>> rooms = new ArrayList<>();
+        for (String room : List.copyOf(lastSeq.keySet())) {
+            rooms.add(recoverRoom(room));
+        }
+        Future.join(rooms).onComplete(done -> {
+            Metrics.record("redis.pubsub.recovery.millis", System.currentTimeMillis() - started);
+            System.out.println("Recovered " + rooms.size() + " rooms in " + (System.currentTimeMillis() - started) + " ms");
+        });
+    }
+
+    /**
+     * Догрузка одной комнаты: номер сообщения однозначно задаёт его место с конца списка истории,
+     * поэтому читаются только последние current - lastSeq элементов
+     *
+     * @param room идентификатор комнаты
+     */
+    private Future<Void> recoverRoom(String room) {
+        long last = lastSeq.get(room);
+        recovering.put(room, new ArrayList<>());
+        return redis.send(Request.cmd(Command.GET).arg(MessageSequence.key(room))).compose(current -> {
+            long missed = current != null ? current.toLong() - last : 0;
+            if (missed <= 0) {
+                return Future.<Response>succeededFuture();
+            }
+            if (missed > maxRecoveredMessages) {
+                Metrics.increment("redis.pubsub.recovery.truncated");
+                missed = maxRecoveredMessages;
+            }
+            return redis.send(Request.cmd(Command.LRANGE).arg(room).arg(-missed).arg(-1));
+        }).onComplete(res -> {
+            List<String> buffered = recovering.remove(room);
+            if (buffered == null) {
+                return;
+            }
+            if (res.succeeded() && res.result() != null) {
+                for (Response missed : res.result()) {
+                    if (MessageSequence.of(missed.toString()) > last) {
+                        Metrics.increment("redis.pubsub.recovered.messages");
+                    }
+                    deliverToRoom(room, missed.toString());
+                }
+            } else if (res.failed()) {
+                System.err.println("Failed to recover room " + room + ": " + res.cause().getMessage());
+            }
+            buffered.forEach(message -> deliverToRoom(room, message));
+        }).mapEmpty();
+    }
+
     /**
      * Метод публикации сообщений, не только в канал, но и в обычное множество, для офлайн сообщений
      *
      * @param room    идентификатор комнаты\канала
      * @param message сообщение
      */
-
-    private void handlePublish(String room, String message) {
-        redis.send(Request.cmd(Command.PUBLISH)
-            .arg(room)
-            .arg(message)).onSuccess(conn -> {
-        }).onFailure(Throwable::printStackTrace);
-        redis.send(Request.cmd(Command.RPUSH)
-            .arg(room)
-            .arg(message)).onSuccess(conn -> {
-        }).onFailure(Throwable::printStackTrace);
+    private Future<Void> publish(String room, String message) {
+        return redis.send(appendMessage(room, message))
+            .compose(appended -> {
+                index(room, appended);
+                markOwn(room, message, appended);
+                return ownership != null ? ownership.publish(room, appended.get(0).toString()) : Future.<Void>succeededFuture();
+            })
+            .onFailure(Throwable::printStackTrace);
     }
 
+    /**
+     * Публикация на виртуальных потоках, тот же сценарий что и {@link #publish}
+     *
+     * @param room    идентификатор комнаты\канала
+     * @param message сообщение
+     */
+    private void awaitPublish(String room, String message) {
+        try {
+            Response appended = await(redis.send(appendMessage(room, message)));
+            index(room, appended);
+            markOwn(room, message, appended);
+            if (ownership != null) {
+                await(ownership.publish(room, appended.get(0).toString()));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 
     /**
-     * Метод для получения всех сообщений
+     * Запись сообщения в историю с выдачей номера, в обычном режиме тем же скриптом и публикация в канал комнаты
      *
-     * @param message сообщение по которому можно вернуть ответ
      * @param room    идентификатор комнаты\канала
+     * @param message сообщение
      */
-    public void getMessagesFromRoom(Message<Object> message, String room) {
-        redis.send(Request.cmd(Command.LRANGE)
+    private Request appendMessage(String room, String message) {
+        return Request.cmd(Command.EVAL)
+            .arg(MessageSequence.APPEND_SCRIPT)
+            .arg(4)
             .arg(room)
-            .arg("0")
-            .arg("-1")).onSuccess(res -> {
-            JsonArray messages = new JsonArray(res.stream()
-                .map(x -> new JsonObject(x.toString()))
-                .toList());
-            message.reply(new JsonObject().put(STATUS, OK).put(MESSAGES, messages));
-        }).onFailure(err -> {
-            err.printStackTrace();
-        });
+            .arg(MessageSequence.key(room))
+            .arg(TieredHistory.overflowKey())
+            .arg(TieredHistory.coldKey(room))
+            .arg(message)
+            .arg(ownership == null ? "1" : "0")
+            .arg(history.hotLimit());
     }
+
+
+    /**
+     * Передача записанного сообщения в поисковый индекс вместе с его позицией в истории
+     *
+     * @param room     идентификатор комнаты\канала
+     * @param appended ответ скрипта записи: сообщение и позиция
+     */
+    private void index(String room, Response appended) {
+        vertx.eventBus().send(SearchEvent.INDEX.getValue(), new JsonObject()
+            .put(ROOM, room)
+            .put(POSITION, appended.get(1).toLong())
+            .put(MESSAGE, appended.get(0).toString()));
+    }
+
+    /**
+     * Метод для получения сообщений комнаты. Без before и limit отдаётся вся история,
+     * иначе страница из limit сообщений, предшествующих позиции before, и позиция для запроса следующей страницы
+     *
+     * @param data комната и параметры страницы
+     */
+    private Future<JsonObject> messagesFromRoom(JsonObject data) {
+        return history.page(data.getString(ROOM), data.getLong(BEFORE, -1L), data.getInteger(LIMIT, -1))
+            .map(page -> page.put(STATUS, OK))
+            .otherwise(err -> {
+                err.printStackTrace();
+                return error("Get messages failed");
+            });
+    }
+
+    /**
+     * Своё сообщение автор уже прочитал, отметка сдвигается на его номер
+     *
+     * @param room     идентификатор комнаты\канала
+     * @param message  исходное сообщение, логин автора в нём взят из проверенного токена в WebSocketVerticle
+     * @param appended ответ скрипта записи: сообщение с номером и позиция
+     */
+    private void markOwn(String room, String message, Response appended) {
+        String login = new JsonObject(message).getString(LOGIN);
+        if (login != null) {
+            markers.markRead(login, room, MessageSequence.of(appended.get(0).toString()));
+        }
+    }
+
 }
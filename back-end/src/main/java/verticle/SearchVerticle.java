@@ -0,0 +1,371 @@
+package verticle;
+
+import helper.Metrics;
+import helper.RedisActionEvent;
+import helper.RoomSearchIndex;
+import helper.SearchEvent;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static helper.ConstantHolder.ACTION;
+import static helper.ConstantHolder.BEFORE;
+import static helper.ConstantHolder.ERROR;
+import static helper.ConstantHolder.LIMIT;
+import static helper.ConstantHolder.MESSAGE;
+import static helper.ConstantHolder.MESSAGES;
+import static helper.ConstantHolder.OK;
+import static helper.ConstantHolder.PARTIAL;
+import static helper.ConstantHolder.POSITION;
+import static helper.ConstantHolder.QUERY;
+import static helper.ConstantHolder.REDIS_ACTION;
+import static helper.ConstantHolder.ROOM;
+import static helper.ConstantHolder.STATUS;
+
+/**
+ * Вертикл полнотекстового поиска по истории комнат.
+ * Индекс комнаты строится при первом поиске по ней: поднимается с диска и догружает из истории страницами
+ * всё, что прошло мимо (другие узлы, перезапуск, старая история). Сообщения из RedisVerticle попадают
+ * только в уже открытые индексы, в памяти держится не больше maxRooms последних использованных комнат.
+ * На диск периодически дописываются только изменения индекса в журнал комнаты, а полный снимок
+ * собирается из прежнего снимка и журнала в executeBlocking, когда журнал перерос снимок.
+ * Поиск ограничен числом результатов и бюджетом времени, при нехватке времени ответ помечается как partial
+ */
+public class SearchVerticle extends AbstractVerticle {
+    private static final String SNAPSHOT_SUFFIX = ".idx";
+    private static final String LOG_SUFFIX = ".log";
+    private static final int DEFAULT_RESULT_LIMIT = 20;
+    private static final int DEFAULT_MAX_RESULT_LIMIT = 100;
+    private static final long DEFAULT_TIME_BUDGET = 50;
+    private static final int DEFAULT_CATCH_UP_BATCH = 1000;
+    private static final long DEFAULT_PERSIST_INTERVAL = 30_000;
+    private static final int DEFAULT_MAX_ROOMS = 1000;
+
+    private Path directory;
+    private int resultLimit;
+    private int maxResultLimit;
+    private long timeBudget;
+    private int catchUpBatch;
+    private int maxRooms;
+
+    /**
+     * Открытые индексы в порядке последнего обращения, самый давний выгружается с сохранением изменений
+     */
+    private final Map<String, Future<RoomSearchIndex>> rooms = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Future<RoomSearchIndex>> eldest) {
+            if (size() <= maxRooms) {
+                return false;
+            }
+            evict(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<String, Future<Void>> catchUps = new HashMap<>();
+    private final Set<String> dirty = new HashSet<>();
+
+    /**
+     * Метод инициализации
+     */
+    @Override
+    public void start() {
+        directory = Path.of(config().getString("directory", "search"));
+        resultLimit = config().getInteger("resultLimit", DEFAULT_RESULT_LIMIT);
+        maxResultLimit = config().getInteger("maxResultLimit", DEFAULT_MAX_RESULT_LIMIT);
+        timeBudget = config().getLong("timeBudget", DEFAULT_TIME_BUDGET);
+        catchUpBatch = config().getInteger("catchUpBatch", DEFAULT_CATCH_UP_BATCH);
+        maxRooms = Math.max(1, config().getInteger("maxRooms", DEFAULT_MAX_ROOMS));
+
+        vertx.eventBus().consumer(SearchEvent.INDEX.getValue(), this::handleIndex);
+        vertx.eventBus().consumer(SearchEvent.QUERY.getValue(), this::handleQuery);
+        vertx.setPeriodic(config().getLong("persistInterval", DEFAULT_PERSIST_INTERVAL), id -> persist());
+    }
+
+    @Override
+    public void stop(Promise<Void> stopPromise) {
+        persist().onComplete(stopPromise);
+    }
+
+    /**
+     * Новое сообщение из RedisVerticle. Индекс ради него не открывается: комнаты, по которым ещё не искали,
+     * догрузят сообщение из истории при первом поиске
+     *
+     * @param message комната, позиция в истории и само сообщение
+     */
+    private void handleIndex(Message<JsonObject> message) {
+        String room = message.body().getString(ROOM);
+        Future<RoomSearchIndex> index = rooms.get(room);
+        if (index == null || !index.succeeded()) {
+            return;
+        }
+        long position = message.body().getLong(POSITION);
+        index.result().offer(position, new JsonObject(message.body().getString(MESSAGE)).getString(MESSAGE));
+        dirty.add(room);
+    }
+
+    /**
+     * Поиск по комнате: сначала индекс догоняет историю, но не дольше бюджета времени, затем поиск с остатком бюджета
+     *
+     * @param message комната, текст запроса и необязательный limit
+     */
+    private void handleQuery(Message<JsonObject> message) {
+        JsonObject request = message.body();
+        String room = request.getString(ROOM);
+        String query = request.getString(QUERY);
+        if (room == null || RoomSearchIndex.tokenize(query).isEmpty()) {
+            message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Empty query"));
+            return;
+        }
+        int limit = Math.max(1, Math.min(maxResultLimit, request.getInteger(LIMIT, resultLimit)));
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+        Metrics.increment("search.queries");
+
+        room(room)
+            .compose(index -> within(catchUp(room, index), timeBudget).map(caughtUp -> {
+                RoomSearchIndex.Result result = index.search(query, limit, Math.max(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1)));
+                return new JsonObject()
+                    .put(POSITION, new JsonArray(new ArrayList<>(result.positions())))
+                    .put(PARTIAL, !caughtUp || result.truncated());
+            }))
+            .compose(found -> vertx.eventBus().<JsonObject>request(REDIS_ACTION, new JsonObject()
+                    .put(ACTION, RedisActionEvent.GET_MESSAGES_AT.getValue())
+                    .put(ROOM, room)
+                    .put(POSITION, found.getJsonArray(POSITION)))
+                .map(reply -> reply.body().put(PARTIAL, found.getBoolean(PARTIAL))))
+            .onSuccess(reply -> {
+                Metrics.record("search.query.micros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+                if (reply.getBoolean(PARTIAL)) {
+                    Metrics.increment("search.partial");
+                }
+                message.reply(reply);
+            })
+            .onFailure(err -> {
+                System.err.println("Search failed in room " + room + ": " + err.getMessage());
+                message.reply(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Search failed"));
+            });
+    }
+
+    /**
+     * Индекс комнаты, при первом обращении поднимается из сохранённого снимка или создаётся пустым
+     */
+    private Future<RoomSearchIndex> room(String room) {
+        return rooms.computeIfAbsent(room, key -> vertx.executeBlocking(() -> load(key))
+            .recover(err -> {
+                System.err.println("Search index of room " + key + " will be rebuilt: " + err.getMessage());
+                return Future.succeededFuture(new RoomSearchIndex());
+            }));
+    }
+
+    /**
+     * Догрузка в индекс сообщений истории, которые он ещё не видел. Одновременно по комнате идёт только одна догрузка
+     */
+    private Future<Void> catchUp(String room, RoomSearchIndex index) {
+        Future<Void> running = catchUps.get(room);
+        if (running != null) {
+            return running;
+        }
+        Promise<Void> finished = Promise.promise();
+        catchUps.put(room, finished.future());
+        catchUpFrom(room, index).onComplete(done -> {
+            catchUps.remove(room, finished.future());
+            finished.handle(done);
+        });
+        return finished.future();
+    }
+
+    private Future<Void> catchUpFrom(String room, RoomSearchIndex index) {
+        long from = index.indexedUpTo();
+        JsonObject request = new JsonObject()
+            .put(ACTION, RedisActionEvent.GET_MESSAGES.getValue())
+            .put(ROOM, room)
+            .put(BEFORE, from + catchUpBatch)
+            .put(LIMIT, catchUpBatch);
+        return vertx.eventBus().<JsonObject>request(REDIS_ACTION, request).compose(reply -> {
+            JsonObject page = reply.body();
+            JsonArray messages = page.getJsonArray(MESSAGES);
+            if (!OK.equals(page.getString(STATUS)) || messages == null) {
+                return Future.failedFuture("History is not available");
+            }
+            long start = page.getLong(BEFORE, 0L);
+            for (int i = 0; i < messages.size(); i++) {
+                index.offer(start + i, messages.getJsonObject(i).getString(MESSAGE));
+            }
+            long indexed = index.indexedUpTo() - from;
+            if (indexed > 0) {
+                dirty.add(room);
+                Metrics.counter("search.catchUp.messages").add(indexed);
+            }
+            boolean reachedEnd = start + messages.size() < from + catchUpBatch;
+            return reachedEnd || indexed == 0 ? Future.succeededFuture() : catchUpFrom(room, index);
+        });
+    }
+
+    /**
+     * Ожидание не дольше заданного времени
+     * @return true если future завершилась вовремя
+     */
+    private Future<Boolean> within(Future<Void> future, long millis) {
+        if (future.isComplete()) {
+            return Future.succeededFuture(future.succeeded());
+        }
+        Promise<Boolean> promise = Promise.promise();
+        long timer = vertx.setTimer(Math.max(1, millis), id -> promise.tryComplete(false));
+        future.onComplete(done -> {
+            vertx.cancelTimer(timer);
+            promise.tryComplete(done.succeeded());
+        });
+        return promise.future();
+    }
+
+    /**
+     * Сохранение изменившихся индексов: в контексте вертикла берутся только новые позиции,
+     * дописывание в журнал идёт в executeBlocking
+     */
+    private Future<Void> persist() {
+        List<Future<Void>> writes = new ArrayList<>();
+        for (String room : dirty) {
+            Future<RoomSearchIndex> index = rooms.get(room);
+            if (index != null && index.succeeded()) {
+                writes.add(persist(room, index.result()));
+            }
+        }
+        dirty.clear();
+        return Future.join(writes)
+            .onFailure(err -> System.err.println("Failed to persist search index: " + err.getMessage()))
+            .mapEmpty();
+    }
+
+    private Future<Void> persist(String room, RoomSearchIndex index) {
+        if (!index.hasChanges()) {
+            return Future.succeededFuture();
+        }
+        byte[] changes = index.changes();
+        Metrics.record("search.persist.bytes", changes.length);
+        return vertx.executeBlocking(() -> {
+            appendLog(room, changes);
+            return null;
+        });
+    }
+
+    /**
+     * Выгрузка самого давнего индекса: несохранённые изменения дописываются в журнал. Запись и последующая загрузка
+     * той же комнаты идут через упорядоченный executeBlocking, поэтому загрузка увидит журнал целиком
+     */
+    private void evict(String room, Future<RoomSearchIndex> index) {
+        Metrics.increment("search.rooms.evicted");
+        dirty.remove(room);
+        catchUps.remove(room);
+        if (index.succeeded()) {
+            persist(room, index.result())
+                .onFailure(err -> System.err.println("Failed to persist search index of room " + room + ": " + err.getMessage()));
+        }
+    }
+
+    /**
+     * Индекс комнаты с диска: снимок и поверх него журнал изменений. Если журнал был, он сразу сворачивается
+     * в новый снимок, так что оборванная при сбое запись в конце журнала не мешает следующим
+     */
+    private RoomSearchIndex load(String room) throws IOException {
+        Path snapshot = snapshotOf(room);
+        RoomSearchIndex index;
+        if (Files.exists(snapshot)) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(snapshot))) {
+                index = RoomSearchIndex.restore(new DataInputStream(in));
+            }
+        } else {
+            index = new RoomSearchIndex();
+        }
+        Path log = logOf(room);
+        if (Files.exists(log)) {
+            replay(index, log);
+            write(snapshot, index.snapshot());
+            Files.delete(log);
+        }
+        return index;
+    }
+
+    /**
+     * Применение записей журнала по порядку до первой, которая оборвана или не стыкуется с индексом
+     */
+    private static void replay(RoomSearchIndex index, Path log) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            while (true) {
+                byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    return;
+                }
+                if (!index.apply(new DataInputStream(new ByteArrayInputStream(record)))) {
+                    System.err.println("Search log " + log + " does not match its snapshot, the rest is rebuilt from history");
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Дописывание изменений в журнал комнаты. Когда журнал становится больше снимка, они сворачиваются в новый снимок
+     */
+    private void appendLog(String room, byte[] changes) throws IOException {
+        Files.createDirectories(directory);
+        Path log = logOf(room);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(log, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            out.writeInt(changes.length);
+            out.write(changes);
+        }
+        Path snapshot = snapshotOf(room);
+        if (Files.size(log) > (Files.exists(snapshot) ? Files.size(snapshot) : 0)) {
+            load(room);
+            Metrics.increment("search.compactions");
+        }
+    }
+
+    private void write(Path file, byte[] snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, snapshot);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path snapshotOf(String room) {
+        return directory.resolve(fileName(room) + SNAPSHOT_SUFFIX);
+    }
+
+    private Path logOf(String room) {
+        return directory.resolve(fileName(room) + LOG_SUFFIX);
+    }
+
+    private static String fileName(String room) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(room.getBytes(StandardCharsets.UTF_8));
+    }
+}
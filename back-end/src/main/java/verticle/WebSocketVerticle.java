@@ -1,37 +1,62 @@
 package verticle;
 
 import helper.AuthEvent;
+import helper.CommandDecoder;
 import helper.RedisActionEvent;
+import helper.Metrics;
+import helper.OutboundBatcher;
+import helper.OutboundFrame;
+import helper.RateLimiter;
+import helper.RoomFanout;
+import helper.SearchEvent;
 import helper.UserStatusEvent;
+import helper.WebSocketCommand;
 import helper.WebSocketEvent;
+import helper.WireFormat;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static helper.ConstantHolder.ACTION;
+import static helper.ConstantHolder.APP_STATE;
+import static helper.ConstantHolder.BEFORE;
+import static helper.ConstantHolder.COUNTS;
 import static helper.ConstantHolder.DATA;
 import static helper.ConstantHolder.DATE;
 import static helper.ConstantHolder.ERROR;
 import static helper.ConstantHolder.EVENT;
+import static helper.ConstantHolder.LIMIT;
 import static helper.ConstantHolder.LOGIN;
 import static helper.ConstantHolder.MESSAGE;
 import static helper.ConstantHolder.MESSAGES;
 import static helper.ConstantHolder.OK;
 import static helper.ConstantHolder.ONLINE_USERS;
+import static helper.ConstantHolder.PARTIAL;
 import static helper.ConstantHolder.PASSWORD;
 import static helper.ConstantHolder.PUBLISH;
+import static helper.ConstantHolder.QUERY;
+import static helper.ConstantHolder.READY;
 import static helper.ConstantHolder.REDIS_ACTION;
+import static helper.ConstantHolder.REDIS_PING;
 import static helper.ConstantHolder.REGISTER;
 import static helper.ConstantHolder.ROOM;
+import static helper.ConstantHolder.SEQ;
 import static helper.ConstantHolder.SOCKET_ID;
 import static helper.ConstantHolder.STATUS;
 import static helper.ConstantHolder.TOKEN;
@@ -42,39 +67,140 @@ import static helper.ConstantHolder.WS_KEY_HEADER;
  * Вертикл для работы с событиями отправленными с фронта и обратно
  */
 public class WebSocketVerticle extends AbstractVerticle {
+    private static final int DEFAULT_PORT = 8090;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final int NOT_FOUND = 404;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final String METRICS_PATH = "/metrics";
+    private static final String READY_PATH = "/ready";
+    private static final String APPLICATION_JSON = "application/json";
+
+
     private final Map<String, ServerWebSocket> webSocketMap = new HashMap<>();
+    /**
+     * Логины аутентифицированных сокетов, нужны для общего на пользователя бюджета запросов
+     */
+    private final Map<String, String> socketLogins = new HashMap<>();
+    private RateLimiter rateLimiter;
+    private OutboundBatcher batcher;
+    private RoomFanout fanout;
 
     /**
      * Метод инициализации
      */
     @Override
     public void start() {
-        HttpServer server = vertx.createHttpServer();
-        server.webSocketHandler(this::handleWebSocket).listen(8090);
+        HttpServerOptions options = new HttpServerOptions()
+            .setWebSocketSubProtocols(WireFormat.subProtocols());
+        JsonObject compressionConfig = config().getJsonObject("compression", new JsonObject());
+        // permessage-deflate через публичные настройки Vert.x. Порога по размеру кадра нет: процессорное время сжатия
+        // растёт вместе с размером, и экономия на микросекунду одинакова для кадров от 128 байт до 8 КБ (CompressionBenchmark)
+        boolean compression = compressionConfig.getBoolean("enabled", true);
+        options.setPerMessageWebSocketCompressionSupported(compression)
+            .setPerFrameWebSocketCompressionSupported(false);
+        if (compression) {
+            options.setWebSocketCompressionLevel(compressionConfig.getInteger("level", DEFAULT_COMPRESSION_LEVEL));
+        }
+        JsonObject rateLimitConfig = config().getJsonObject("rateLimit", new JsonObject());
+        if (rateLimitConfig.getBoolean("enabled", true)) {
+            rateLimiter = RateLimiter.shared(vertx, rateLimitConfig);
+        }
+        JsonObject batchingConfig = config().getJsonObject("batching", new JsonObject());
+        if (batchingConfig.getBoolean("enabled", false)) {
+            batcher = new OutboundBatcher(vertx, batchingConfig);
+        }
+        fanout = new RoomFanout(vertx, context, config().getJsonObject("fanout", new JsonObject()), this::deliver);
+        HttpServer server = vertx.createHttpServer(options);
+        server.requestHandler(this::handleHttpRequest)
+            .webSocketHandler(this::handleWebSocket)
+            .listen(config().getInteger("port", DEFAULT_PORT));
         vertx.eventBus().consumer(UserStatusEvent.STATUS_CHANGED.getValue(), this::handleUserStatusChanged);
     }
 
+    /**
+     * Обычные HTTP запросы к серверу: выгрузка метрик и проба готовности
+     * @param request запрос
+     */
+    private void handleHttpRequest(HttpServerRequest request) {
+        if (request.method() == HttpMethod.GET && METRICS_PATH.equals(request.path())) {
+            request.response()
+                .putHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON)
+                .end(Metrics.snapshot().encode());
+        } else if (request.method() == HttpMethod.GET && READY_PATH.equals(request.path())) {
+            handleReady(request);
+        } else {
+            request.response().setStatusCode(NOT_FOUND).end();
+        }
+    }
+
+    /**
+     * Проба готовности: все вертиклы развернуты и Редис отвечает на PING
+     * @param request запрос
+     */
+    private void handleReady(HttpServerRequest request) {
+        if (!Boolean.TRUE.equals(vertx.sharedData().getLocalMap(APP_STATE).get(READY))) {
+            respondNotReady(request, "Deployment in progress");
+            return;
+        }
+        vertx.eventBus().request(REDIS_PING, null, reply -> {
+            if (reply.succeeded()) {
+                request.response()
+                    .putHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON)
+                    .end(new JsonObject().put(STATUS, OK).encode());
+            } else {
+                respondNotReady(request, "Redis is unreachable");
+            }
+        });
+    }
+
+    private void respondNotReady(HttpServerRequest request, String reason) {
+        request.response()
+            .setStatusCode(SERVICE_UNAVAILABLE)
+            .putHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON)
+            .end(new JsonObject().put(STATUS, ERROR).put(MESSAGE, reason).encode());
+    }
+
     /**
      * Метод прослушивания событий, состояния соединения от пользователя
      * @param ws екзмпляр сокет подключения
      */
     private void handleWebSocket(ServerWebSocket ws) {
+        AtomicLongArray limits = rateLimiter != null ? rateLimiter.newConnectionState() : null;
         ws.handler(buffer -> {
             String wsKey = ws.headers().get(WS_KEY_HEADER);
             webSocketMap.put(wsKey, ws);
-            String message = buffer.toString();
-            JsonObject json = new JsonObject(message);
-            JsonObject data = json.getJsonObject(DATA);
-
-            switch (WebSocketEvent.fromString(json.getString(EVENT))) {
-                case JOIN -> handleJoin(ws, data, wsKey);
-                case MESSAGE -> handleMessage(data, ws);
-                case LOGIN -> handleLogin(ws, data, wsKey);
-                case REGISTER -> handleRegistration(ws, data);
+            WebSocketCommand command;
+            try {
+                command = CommandDecoder.decode(WireFormat.of(ws), buffer);
+            } catch (DecodeException e) {
+                send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, e.getMessage()));
+                return;
+            }
+            if (limits != null) {
+                String exhausted = rateLimiter.tryAcquire(limits, socketLogins.get(wsKey), command.event());
+                if (exhausted != null) {
+                    Metrics.increment("rateLimit.throttled." + exhausted + "." + command.event().getValue());
+                    send(ws, new JsonObject()
+                        .put(EVENT, ERROR)
+                        .put(STATUS, ERROR)
+                        .put(ACTION, command.event().getValue())
+                        .put(MESSAGE, "Too many " + command.event().getValue() + " requests"));
+                    return;
+                }
+            }
+
+            switch (command.event()) {
+                case JOIN -> handleJoin(ws, (WebSocketCommand.Join) command, wsKey);
+                case MESSAGE -> handleMessage((WebSocketCommand.Message) command, ws, wsKey);
+                case LOGIN -> handleLogin(ws, (WebSocketCommand.Login) command, wsKey);
+                case REGISTER -> handleRegistration(ws, (WebSocketCommand.Register) command);
                 case GET_ONLINE_USERS -> handleOnlineUsers(ws);
-                case AUTH -> handleAuthentication(ws, data, wsKey);
-                case GET_MESSAGES -> handleGetMessages(ws, data);
-                default -> System.err.println("Unknown event");
+                case AUTH -> handleAuthentication(ws, (WebSocketCommand.Auth) command, wsKey);
+                case GET_MESSAGES -> handleGetMessages(ws, (WebSocketCommand.GetMessages) command);
+                case SEARCH_MESSAGES -> handleSearchMessages(ws, (WebSocketCommand.SearchMessages) command, wsKey);
+                case MARK_READ -> handleMarkRead(ws, (WebSocketCommand.MarkRead) command, wsKey);
+                case GET_UNREAD_COUNTS -> handleUnreadCounts(ws, wsKey);
+                case LOGOUT -> handleLogout(ws, (WebSocketCommand.Logout) command);
             }
         });
 
@@ -83,6 +209,11 @@ public class WebSocketVerticle extends AbstractVerticle {
             if (wsKey != null) {
                 if (webSocketMap.containsKey(wsKey)) {
                     webSocketMap.remove(wsKey);
+                    socketLogins.remove(wsKey);
+                    fanout.leave(ws);
+                    if (batcher != null) {
+                        batcher.remove(ws);
+                    }
                     vertx.eventBus().send(UserStatusEvent.DISCONNECTED.getValue(), new JsonObject().put(SOCKET_ID, wsKey));
                     JsonObject closeMessage = new JsonObject()
                         .put(ACTION, RedisActionEvent.UNSUBSCRIBE.getValue())
@@ -102,36 +233,165 @@ public class WebSocketVerticle extends AbstractVerticle {
     }
 
     /**
-     * Метод переправки всех сообщений из канала
+     * Метод переправки сообщений из канала, всех или страницы перед позицией before
      * @param ws сокет соединение, по которому можно отправить данные обратно
-     * @param data содержимое запроса
+     * @param command содержимое запроса
      */
-    private void handleGetMessages(ServerWebSocket ws, JsonObject data) {
-        String room = data.getString(ROOM);
+    private void handleGetMessages(ServerWebSocket ws, WebSocketCommand.GetMessages command) {
+        String room = command.room();
                     JsonObject request = new JsonObject()
                         .put(ACTION, RedisActionEvent.GET_MESSAGES.getValue())
                         .put(ROOM, room);
+                    if (command.before() != null) {
+                        request.put(BEFORE, command.before());
+                    }
+                    if (command.limit() != null) {
+                        request.put(LIMIT, command.limit());
+                    }
                     vertx.eventBus().request(REDIS_ACTION, request, reply -> {
                         if (reply.succeeded()) {
                             JsonObject resp = (JsonObject) reply.result().body();
                             JsonArray messages = resp.getJsonArray(MESSAGES);
                             if (messages != null) {
-                                ws.writeTextMessage(new JsonObject().put(EVENT, MESSAGES).put(MESSAGES, messages).encode());
+                                JsonObject response = new JsonObject().put(EVENT, MESSAGES).put(MESSAGES, messages);
+                                if (resp.containsKey(BEFORE)) {
+                                    response.put(BEFORE, resp.getLong(BEFORE));
+                                }
+                                send(ws, response);
+                            } else {
+                                send(ws, new JsonObject().put(EVENT, MESSAGES).put(DATA, resp));
                             }
                         } else {
-                            ws.writeTextMessage(new JsonObject().put(EVENT, MESSAGES).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Get messages failed")).encode());
+                            send(ws, new JsonObject().put(EVENT, MESSAGES).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Get messages failed")));
                         }
                     });
     }
 
+    /**
+     * Поиск сообщений комнаты по словам, в ответе самые новые совпадения и признак partial, если поиск не успел просмотреть всё.
+     * Без действительного токена поиск не выполняется
+     * @param ws сокет соединение, по которому можно отправить данные обратно
+     * @param command токен, комната, запрос и размер выдачи
+     * @param wsKey идентификатор сокета
+     */
+    private void handleSearchMessages(ServerWebSocket ws, WebSocketCommand.SearchMessages command, String wsKey) {
+        String event = WebSocketEvent.SEARCH_MESSAGES.getValue();
+        verifyToken(command.token(), verification -> {
+            if (verification.failed() || !OK.equals(verification.result().getString(STATUS))) {
+                send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed")));
+                return;
+            }
+            rememberLogin(wsKey, verification.result());
+            searchMessages(ws, command);
+        });
+    }
+
+    /**
+     * Запрос к поисковому индексу от имени уже проверенного пользователя
+     *
+     * @param ws      сокет соединение
+     * @param command комната, запрос и лимит
+     */
+    private void searchMessages(ServerWebSocket ws, WebSocketCommand.SearchMessages command) {
+        JsonObject request = new JsonObject()
+            .put(ROOM, command.room())
+            .put(QUERY, command.query());
+        if (command.limit() != null) {
+            request.put(LIMIT, command.limit());
+        }
+        String event = WebSocketEvent.SEARCH_MESSAGES.getValue();
+        vertx.eventBus().<JsonObject>request(SearchEvent.QUERY.getValue(), request, reply -> {
+            if (reply.succeeded() && OK.equals(reply.result().body().getString(STATUS))) {
+                JsonObject result = reply.result().body();
+                send(ws, new JsonObject()
+                    .put(EVENT, event)
+                    .put(ROOM, command.room())
+                    .put(MESSAGES, result.getJsonArray(MESSAGES))
+                    .put(PARTIAL, result.getBoolean(PARTIAL, false)));
+            } else {
+                String error = reply.succeeded() ? reply.result().body().getString(MESSAGE) : "Search failed";
+                send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, error)));
+            }
+        });
+    }
+
+    /**
+     * Отметка прочтения комнаты до сообщения seq, ответа нет: частые отметки копятся в RedisVerticle и пишутся пачкой
+     * @param ws сокет соединение, по которому можно отправить данные обратно
+     * @param command комната и номер последнего прочитанного сообщения
+     * @param wsKey идентификатор сокета
+     */
+    private void handleMarkRead(ServerWebSocket ws, WebSocketCommand.MarkRead command, String wsKey) {
+        String login = socketLogins.get(wsKey);
+        String event = WebSocketEvent.MARK_READ.getValue();
+        if (login == null) {
+            send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Not authenticated")));
+            return;
+        }
+        if (command.room() == null || command.seq() == null) {
+            send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Room and seq are required")));
+            return;
+        }
+        vertx.eventBus().send(REDIS_ACTION, new JsonObject()
+            .put(ACTION, RedisActionEvent.MARK_READ.getValue())
+            .put(LOGIN, login)
+            .put(ROOM, command.room())
+            .put(SEQ, command.seq()));
+    }
+
+    /**
+     * Число непрочитанных сообщений во всех комнатах пользователя одним ответом
+     * @param ws сокет соединение, по которому можно отправить данные обратно
+     * @param wsKey идентификатор сокета
+     */
+    private void handleUnreadCounts(ServerWebSocket ws, String wsKey) {
+        String login = socketLogins.get(wsKey);
+        String event = WebSocketEvent.GET_UNREAD_COUNTS.getValue();
+        if (login == null) {
+            send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Not authenticated")));
+            return;
+        }
+        JsonObject request = new JsonObject()
+            .put(ACTION, RedisActionEvent.GET_UNREAD_COUNTS.getValue())
+            .put(LOGIN, login);
+        vertx.eventBus().<JsonObject>request(REDIS_ACTION, request, reply -> {
+            if (reply.succeeded() && OK.equals(reply.result().body().getString(STATUS))) {
+                send(ws, new JsonObject().put(EVENT, event).put(COUNTS, reply.result().body().getJsonObject(COUNTS)));
+            } else {
+                send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Get unread counts failed")));
+            }
+        });
+    }
+
+    /**
+     * Выход: токен отзывается на всех узлах, после ответа соединение закрывается
+     * @param ws сокет соединение, по которому можно отправить данные обратно
+     * @param command токен
+     */
+    private void handleLogout(ServerWebSocket ws, WebSocketCommand.Logout command) {
+        String event = WebSocketEvent.LOGOUT.getValue();
+        if (command.token() == null) {
+            send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Token is required")));
+            return;
+        }
+        vertx.eventBus().<JsonObject>request(AuthEvent.REVOKE.getValue(), new JsonObject().put(TOKEN, command.token()), reply -> {
+            if (reply.succeeded() && OK.equals(reply.result().body().getString(STATUS))) {
+                send(ws, new JsonObject().put(EVENT, event).put(STATUS, OK));
+                ws.close();
+            } else {
+                send(ws, new JsonObject().put(EVENT, event).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Logout failed")));
+            }
+        });
+    }
+
     /**
      * Метод проверки токена с новым подключеним
      * @param ws сокет соединение, по которому можно отправить данные обратно
-     * @param data токен
+     * @param command токен
      * @param wsKey идентификатор сокета
      */
-    private void handleAuthentication(ServerWebSocket ws, JsonObject data, String wsKey) {
-        String token = data.getString(TOKEN);
+    private void handleAuthentication(ServerWebSocket ws, WebSocketCommand.Auth command, String wsKey) {
+        String token = command.token();
         if (token != null) {
             verifyToken(token, verification -> {
                 if (verification.succeeded()) {
@@ -139,14 +399,15 @@ public class WebSocketVerticle extends AbstractVerticle {
                     if (OK.equals(response.getString(STATUS))) {
                         JsonObject principal = response.getJsonObject("principal");
                         String login = principal.getString("sub");
+                        socketLogins.put(wsKey, login);
                         vertx.eventBus().send(UserStatusEvent.CONNECTED.getValue(), new JsonObject()
                             .put(LOGIN, login)
                             .put(SOCKET_ID, wsKey));
                     } else {
-                        ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed").encode());
+                        send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed"));
                     }
                 } else {
-                    ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Token verification failed").encode());
+                    send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Token verification failed"));
                 }
             });
         }
@@ -155,17 +416,17 @@ public class WebSocketVerticle extends AbstractVerticle {
     /**
      * Метод подписки на новый канал от пользователя
      * @param ws сокет соединение, по которому можно отправить данные обратно
-     * @param data содержимое запроса
+     * @param command содержимое запроса
      * @param wsKey идентификатор сокета
      */
-    private void handleJoin(ServerWebSocket ws, JsonObject data, String wsKey) {
-        String token = data.getString(TOKEN);
-        verifyToken(token, verification -> {
+    private void handleJoin(ServerWebSocket ws, WebSocketCommand.Join command, String wsKey) {
+        verifyToken(command.token(), verification -> {
             if (verification.succeeded()) {
                 JsonObject response = verification.result();
                 if (OK.equals(response.getString(STATUS))) {
-                    String user = data.getString("user");
-                    String room = data.getString(ROOM);
+                    rememberLogin(wsKey, response);
+                    String user = command.user();
+                    String room = command.room();
 
                     ServerWebSocket existingSocket = webSocketMap.get(wsKey);
                     if (existingSocket != null && !existingSocket.equals(ws)) {
@@ -175,37 +436,48 @@ public class WebSocketVerticle extends AbstractVerticle {
                         .put(ACTION, "subscribe")
                         .put(ROOM, room)
                         .put("user", user)
+                        .put(LOGIN, response.getJsonObject("principal").getString("sub"))
                         .put(WS_ID, wsKey);
                     vertx.eventBus().send(REDIS_ACTION, joinMessage);
-                    vertx.eventBus().consumer("room." + room, message -> {
-                        if (ws.equals(webSocketMap.get(wsKey))) {
-                            ws.writeTextMessage((String) message.body());
-                        }
-                    });
+                    fanout.join(room, ws);
                 } else {
-                    ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed").encode());
+                    send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed"));
                 }
             } else {
-                ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Token verification failed").encode());
+                send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Token verification failed"));
             }
         });
     }
 
     /**
-     * Метод отправки сообщения
-     * @param data содержимое запроса
+     * Сокет, приславший проверенный токен, дальше считается сокетом этого пользователя,
+     * даже если клиент не отправлял auth, так что его запросы списываются и с бюджета пользователя
+     * @param wsKey идентификатор сокета
+     * @param verification ответ проверки токена
+     */
+    private void rememberLogin(String wsKey, JsonObject verification) {
+        String login = verification.getJsonObject("principal").getString("sub");
+        if (login != null && wsKey != null && webSocketMap.containsKey(wsKey)) {
+            socketLogins.put(wsKey, login);
+        }
+    }
+
+    /**
+     * Метод отправки сообщения. Автор берётся из проверенного токена, по нему же сдвигается отметка прочтения
+     * @param command содержимое запроса
      * @param ws сокет соединение, по которому можно отправить данные обратно
+     * @param wsKey идентификатор сокета
      */
-    private void handleMessage(JsonObject data, ServerWebSocket ws) {
-        String token = data.getString(TOKEN);
-        verifyToken(token, verification -> {
+    private void handleMessage(WebSocketCommand.Message command, ServerWebSocket ws, String wsKey) {
+        verifyToken(command.token(), verification -> {
             if (verification.succeeded()) {
                 JsonObject response = verification.result();
                 if (OK.equals(response.getString(STATUS))) {
-                    String room = data.getString(ROOM);
-                    String login = data.getString(LOGIN);
-                    String message = data.getString(MESSAGE);
-                    String date = data.getString(DATE);
+                    rememberLogin(wsKey, response);
+                    String room = command.room();
+                    String login = response.getJsonObject("principal").getString("sub");
+                    String message = command.message();
+                    String date = command.date();
                     JsonObject publishMessage = new JsonObject()
                         .put(ACTION, PUBLISH)
                         .put(ROOM, room)
@@ -216,10 +488,10 @@ public class WebSocketVerticle extends AbstractVerticle {
                             .put(DATE, date).encode());
                     vertx.eventBus().send(REDIS_ACTION, publishMessage);
                 } else {
-                    ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed").encode());
+                    send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed"));
                 }
             } else {
-                ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Token verification failed").encode());
+                send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Token verification failed"));
             }
         });
     }
@@ -227,12 +499,12 @@ public class WebSocketVerticle extends AbstractVerticle {
     /**
      * Метод проверки входа в систему
      * @param ws сокет соединение, по которому можно отправить данные обратно
-     * @param data креды пользователя
+     * @param command креды пользователя
      * @param wsKey идентификатор вебсокета
      */
-    private void handleLogin(ServerWebSocket ws, JsonObject data, String wsKey) {
-        String login = data.getString(LOGIN);
-        String password = data.getString(PASSWORD);
+    private void handleLogin(ServerWebSocket ws, WebSocketCommand.Login command, String wsKey) {
+        String login = command.login();
+        String password = command.password();
 
         JsonObject request = new JsonObject()
             .put(LOGIN, login)
@@ -243,19 +515,19 @@ public class WebSocketVerticle extends AbstractVerticle {
                 JsonObject response = (JsonObject) reply.result().body();
                 if (OK.equals(response.getString(STATUS))) {
                     // Handle successful authentication
-                    ws.writeTextMessage(new JsonObject().put(STATUS, "authenticated")
+                    send(ws, new JsonObject().put(STATUS, "authenticated")
                         .put(TOKEN, response.getString(TOKEN))
-                        .put("user", login)
-                        .encode());
+                        .put("user", login));
+                    socketLogins.put(wsKey, login);
                     vertx.eventBus().send(UserStatusEvent.CONNECTED.getValue(), new JsonObject()
                         .put(LOGIN, login)
                         .put(SOCKET_ID, wsKey));
                 } else {
                     // Handle authentication failure
-                    ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, response.getString(MESSAGE)).encode());
+                    send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, response.getString(MESSAGE)));
                 }
             } else {
-                ws.writeTextMessage(new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed").encode());
+                send(ws, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Authentication failed"));
             }
         });
     }
@@ -263,11 +535,11 @@ public class WebSocketVerticle extends AbstractVerticle {
     /**
      * Метод регистрации нового пользователя
      * @param ws сокет соединение, по которому можно отправить данные обратно
-     * @param data креды пользователя
+     * @param command креды пользователя
      */
-    private void handleRegistration(ServerWebSocket ws, JsonObject data) {
-        String login = data.getString(LOGIN);
-        String password = data.getString(PASSWORD);
+    private void handleRegistration(ServerWebSocket ws, WebSocketCommand.Register command) {
+        String login = command.login();
+        String password = command.password();
 
         JsonObject request = new JsonObject()
             .put(ACTION, REGISTER)
@@ -279,13 +551,13 @@ public class WebSocketVerticle extends AbstractVerticle {
                 JsonObject response = (JsonObject) reply.result().body();
                 if (OK.equals(response.getString(STATUS))) {
 
-                    ws.writeTextMessage(new JsonObject().put(EVENT, REGISTER).put(DATA, new JsonObject().put(STATUS, OK).put(MESSAGE, "Registration ok")).encode());
+                    send(ws, new JsonObject().put(EVENT, REGISTER).put(DATA, new JsonObject().put(STATUS, OK).put(MESSAGE, "Registration ok")));
                 } else {
 
-                    ws.writeTextMessage(new JsonObject().put(EVENT, REGISTER).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, response.getString(MESSAGE))).encode());
+                    send(ws, new JsonObject().put(EVENT, REGISTER).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, response.getString(MESSAGE))));
                 }
             } else {
-                ws.writeTextMessage(new JsonObject().put(EVENT, REGISTER).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Registration failed")).encode());
+                send(ws, new JsonObject().put(EVENT, REGISTER).put(DATA, new JsonObject().put(STATUS, ERROR).put(MESSAGE, "Registration failed")));
             }
         });
     }
@@ -306,6 +578,31 @@ public class WebSocketVerticle extends AbstractVerticle {
         });
     }
 
+    /**
+     * Отправка события в формате, согласованном с сокетом
+     * @param ws сокет соединение
+     * @param json событие
+     */
+    private void send(ServerWebSocket ws, JsonObject json) {
+        WireFormat.of(ws).write(ws, json);
+    }
+
+    /**
+     * Доставка сообщения из комнаты, при включённой склейке через {@link OutboundBatcher}
+     * @param ws сокет соединение
+     * @param message сообщение, закодированное один раз на всю комнату
+     */
+    private void deliver(ServerWebSocket ws, OutboundFrame message) {
+        if (ws.isClosed()) {
+            return;
+        }
+        if (batcher != null) {
+            batcher.send(ws, message);
+        } else {
+            WireFormat.of(ws).write(ws, message);
+        }
+    }
+
     /**
      * Получение всех пользователей
      * @param ws сокет соединение, по которому можно отправить данные обратно
@@ -316,12 +613,12 @@ public class WebSocketVerticle extends AbstractVerticle {
                 JsonObject response = (JsonObject) reply.result().body();
                 JsonArray onlineUsers = response.getJsonArray(ONLINE_USERS);
                 if (onlineUsers != null) {
-                    ws.writeTextMessage(new JsonObject().put(EVENT, ONLINE_USERS).put(ONLINE_USERS, onlineUsers).encode());
+                    send(ws, new JsonObject().put(EVENT, ONLINE_USERS).put(ONLINE_USERS, onlineUsers));
                 } else {
-                    ws.writeTextMessage(new JsonObject().put(EVENT, ERROR).put(MESSAGE, "No online users found").encode());
+                    send(ws, new JsonObject().put(EVENT, ERROR).put(MESSAGE, "No online users found"));
                 }
             } else {
-                ws.writeTextMessage(new JsonObject().put(EVENT, ERROR).put(MESSAGE, "Failed to get online users").encode());
+                send(ws, new JsonObject().put(EVENT, ERROR).put(MESSAGE, "Failed to get online users"));
             }
         });
     }
@@ -332,10 +629,19 @@ public class WebSocketVerticle extends AbstractVerticle {
      */
     private void handleUserStatusChanged(Message<JsonObject> message) {
         JsonObject body = message.body();
-        String onlineUsers = new JsonObject().put(EVENT, UserStatusEvent.STATUS_CHANGED.getValue()).put(ONLINE_USERS, body.getJsonArray(ONLINE_USERS)).encode();
+        JsonObject onlineUsers = new JsonObject().put(EVENT, UserStatusEvent.STATUS_CHANGED.getValue()).put(ONLINE_USERS, body.getJsonArray(ONLINE_USERS));
+        String json = onlineUsers.encode();
+        Buffer cbor = null;
         for (Map.Entry<String, ServerWebSocket> entry : webSocketMap.entrySet()) {
             ServerWebSocket socket = entry.getValue();
-            socket.writeTextMessage(onlineUsers);
+            if (WireFormat.of(socket) == WireFormat.CBOR) {
+                if (cbor == null) {
+                    cbor = WireFormat.CBOR.encode(onlineUsers);
+                }
+                socket.writeBinaryMessage(cbor);
+            } else {
+                socket.writeTextMessage(json);
+            }
         }
     }
 }
@@ -0,0 +1,56 @@
+package helper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+    private static final int INSERTED = 100_000;
+    private static final int PROBES = 200_000;
+
+    @Test
+    void hasNoFalseNegatives() {
+        BloomFilter filter = new BloomFilter(INSERTED, 0.001);
+        for (int i = 0; i < INSERTED; i++) {
+            filter.put("token:" + i);
+        }
+
+        for (int i = 0; i < INSERTED; i++) {
+            assertTrue(filter.mightContain("token:" + i), "token:" + i);
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysNearConfigured() {
+        for (double rate : new double[]{0.01, 0.001}) {
+            BloomFilter filter = new BloomFilter(INSERTED, rate);
+            for (int i = 0; i < INSERTED; i++) {
+                filter.put("user:" + i);
+            }
+            int positives = 0;
+            for (int i = 0; i < PROBES; i++) {
+                if (filter.mightContain("other:" + i)) {
+                    positives++;
+                }
+            }
+            double measured = (double) positives / PROBES;
+            assertTrue(measured < rate * 1.5, "measured " + measured + " for configured " + rate);
+        }
+    }
+
+    @Test
+    void rateGrowsWhenOverfilled() {
+        BloomFilter filter = new BloomFilter(1000, 0.001);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("token:" + i);
+        }
+        int positives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain("other:" + i)) {
+                positives++;
+            }
+        }
+
+        assertTrue(positives > 10, "an overfilled filter must not claim the configured rate");
+    }
+}
@@ -0,0 +1,57 @@
+package helper;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CommandDecoderTest {
+    private static final String JOIN = "{\"event\":\"join\",\"extra\":[1,2],\"data\":{\"token\":\"t\",\"user\":\"u\",\"room\":\"r\"}}";
+
+    @Test
+    void decodesHeapBufferSlice() {
+        Buffer frame = Buffer.buffer("garbage" + JOIN).slice(7, 7 + JOIN.getBytes(StandardCharsets.UTF_8).length);
+
+        assertEquals(new WebSocketCommand.Join("t", "u", "r"), CommandDecoder.decode(WireFormat.JSON, frame));
+    }
+
+    @Test
+    void decodesDirectBuffer() {
+        ByteBuf direct = Unpooled.directBuffer().writeBytes(JOIN.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(new WebSocketCommand.Join("t", "u", "r"), CommandDecoder.decode(WireFormat.JSON, BufferImpl.buffer(direct)));
+    }
+
+    @Test
+    void decodesCbor() {
+        Buffer frame = WireFormat.CBOR.encode(new JsonObject()
+            .put("event", "getMessages")
+            .put("data", new JsonObject().put("room", "r").put("before", 40).put("limit", 20)));
+
+        assertEquals(new WebSocketCommand.GetMessages("r", 40L, 20), CommandDecoder.decode(WireFormat.CBOR, frame));
+    }
+
+    @Test
+    void decodesSearchToken() {
+        Buffer frame = Buffer.buffer("{\"event\":\"searchMessages\",\"data\":{\"token\":\"t\",\"room\":\"r\",\"query\":\"q\"}}");
+
+        assertEquals(new WebSocketCommand.SearchMessages("t", "r", "q", null), CommandDecoder.decode(WireFormat.JSON, frame));
+    }
+
+    @Test
+    void rejectsMalformedFrames() {
+        assertThrows(DecodeException.class, () -> CommandDecoder.decode(WireFormat.JSON, Buffer.buffer("[1]")));
+        assertThrows(DecodeException.class, () -> CommandDecoder.decode(WireFormat.JSON, Buffer.buffer("{\"event\":\"nope\"}")));
+        assertThrows(DecodeException.class, () -> CommandDecoder.decode(WireFormat.JSON, Buffer.buffer("{\"event\":\"join\"")));
+        assertThrows(DecodeException.class, () -> CommandDecoder.decode(WireFormat.JSON,
+            Buffer.buffer("{\"event\":\"getMessages\",\"data\":{\"room\":\"r\",\"limit\":-1}}")));
+    }
+}
@@ -0,0 +1,188 @@
+package helper;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketClientOptions;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Размер кадра с permessage-deflate и без него для событий разной длины.
+ * Сжатие повторяет то, что делает расширение: raw deflate с общим окном на соединение и SYNC_FLUSH после каждого кадра
+ */
+@Tag("benchmark")
+class CompressionBenchmark {
+    private static final int FRAMES = 200;
+    private static final int ITERATIONS = 20;
+    private static final int SENT_FRAMES = 50_000;
+    private static final int[] SIZES = {128, 256, 384, 512, 768, 1024, 2048, 8192};
+    private static final String[] WORDS = ("привет как дела сегодня завтра встреча в офисе созвон через минут "
+        + "отправил файл посмотри пожалуйста ок да нет спасибо готово релиз сборка упала тесты зелёные "
+        + "hello thanks deploy build merge review ticket bug fix done lunch coffee meeting at room link").split(" ");
+
+    @Test
+    void compressedVersusPlain() {
+        System.out.printf("%8s %10s %14s %14s %10s%n", "chars", "plain B", "deflate B", "no context B", "ns/frame");
+        for (int size : SIZES) {
+            byte[][] frames = new byte[FRAMES][];
+            long plain = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                frames[i] = frame(size, i).getBytes(StandardCharsets.UTF_8);
+                plain += frames[i].length;
+            }
+            long shared = deflate(frames, false);
+            long isolated = deflate(frames, true);
+            long started = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                deflate(frames, false);
+            }
+            double nanos = (double) (System.nanoTime() - started) / ITERATIONS / FRAMES;
+            System.out.printf("%8d %10.1f %14.1f %14.1f %10.0f%n",
+                size, (double) plain / FRAMES, (double) shared / FRAMES, (double) isolated / FRAMES, nanos);
+            assertTrue(shared <= isolated);
+        }
+    }
+
+    /**
+     * Процессорное время потока event loop сервера на один отправленный кадр, со сжатием и без.
+     * Клиент разжимает в своём экземпляре Vert.x и в замер не попадает.
+     * Последняя колонка - сколько байт сжатие экономит на микросекунду процессора сервера: если она не растёт с размером,
+     * порог по размеру кадра не выбирает кадры, где сжатие выгоднее, а просто отключает его для самых частых
+     */
+    @Test
+    void serverCpuPerFrame() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadCpuTimeSupported(), "thread CPU time is not supported");
+        System.out.printf("%8s %12s %12s %12s %14s%n", "chars", "plain ns", "deflate ns", "overhead ns", "saved B/us");
+        for (int size : SIZES) {
+            String[] frames = new String[FRAMES];
+            byte[][] bytes = new byte[FRAMES][];
+            long plainBytes = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                frames[i] = frame(size, i);
+                bytes[i] = frames[i].getBytes(StandardCharsets.UTF_8);
+                plainBytes += bytes[i].length;
+            }
+            double saved = (double) (plainBytes - deflate(bytes, false)) / FRAMES;
+            // первый проход на прогрев
+            send(threads, frames, false);
+            send(threads, frames, true);
+            double plain = send(threads, frames, false);
+            double deflate = send(threads, frames, true);
+            System.out.printf("%8d %12.0f %12.0f %12.0f %14.1f%n", size, plain, deflate, deflate - plain, saved * 1000 / (deflate - plain));
+        }
+    }
+
+    /**
+     * Отправка SENT_FRAMES кадров одному клиенту с учётом заполнения очереди записи
+     * @param compression включено ли permessage-deflate на сервере
+     * @return процессорное время потока сервера на кадр в наносекундах
+     */
+    private static double send(ThreadMXBean threads, String[] frames, boolean compression) throws Exception {
+        Vertx server = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+        Vertx client = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1));
+        try {
+            AtomicLong serverThread = new AtomicLong();
+            AtomicLong cpuStarted = new AtomicLong();
+            HttpServer http = server.createHttpServer(new HttpServerOptions()
+                    .setPerMessageWebSocketCompressionSupported(compression)
+                    .setPerFrameWebSocketCompressionSupported(false)
+                    .setWebSocketCompressionLevel(6))
+                .webSocketHandler(ws -> {
+                    serverThread.set(Thread.currentThread().getId());
+                    cpuStarted.set(threads.getCurrentThreadCpuTime());
+                    write(ws, frames, 0);
+                });
+            int port = http.listen(0).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS).actualPort();
+
+            CompletableFuture<Void> received = new CompletableFuture<>();
+            AtomicInteger count = new AtomicInteger();
+            WebSocketClient ws = client.createWebSocketClient(new WebSocketClientOptions().setTryUsePerMessageCompression(true));
+            ws.connect(port, "localhost", "/").onSuccess(socket -> socket.textMessageHandler(text -> {
+                if (count.incrementAndGet() == SENT_FRAMES) {
+                    received.complete(null);
+                }
+            })).onFailure(received::completeExceptionally);
+            received.get(120, TimeUnit.SECONDS);
+            return (double) (threads.getThreadCpuTime(serverThread.get()) - cpuStarted.get()) / SENT_FRAMES;
+        } finally {
+            client.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            server.close().toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void write(ServerWebSocket ws, String[] frames, int from) {
+        int i = from;
+        while (i < SENT_FRAMES && !ws.writeQueueFull()) {
+            ws.writeTextMessage(frames[i % frames.length]);
+            i++;
+        }
+        if (i < SENT_FRAMES) {
+            int next = i;
+            ws.drainHandler(v -> write(ws, frames, next));
+        }
+    }
+
+    /**
+     * Сжатие кадров одного соединения
+     * @param resetEachFrame true для client/server_no_context_takeover, когда окно не переживает кадр
+     * @return суммарный размер сжатых кадров
+     */
+    private static long deflate(byte[][] frames, boolean resetEachFrame) {
+        Deflater deflater = new Deflater(6, true);
+        byte[] out = new byte[frames[frames.length - 1].length * 2 + 1024];
+        long total = 0;
+        for (byte[] frame : frames) {
+            if (resetEachFrame) {
+                deflater.reset();
+            }
+            deflater.setInput(frame);
+            int length = 0;
+            int chunk;
+            do {
+                chunk = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+                length += chunk;
+            } while (chunk == out.length);
+            // пустой хвост 00 00 FF FF по RFC 7692 не передаётся
+            total += length - 4;
+        }
+        deflater.end();
+        return total;
+    }
+
+    /**
+     * Событие чата примерно заданной длины: служебные поля плюс текст из случайных слов, как в настоящей комнате
+     */
+    private static String frame(int size, int seed) {
+        Random random = new Random(seed);
+        JsonObject message = new JsonObject()
+            .put("room", "general")
+            .put("login", "user" + random.nextInt(50))
+            .put("date", "2024-05-17T18:" + (10 + random.nextInt(50)) + ":11.512Z")
+            .put("seq", 100_000 + seed);
+        int budget = size - message.encode().length() - 14;
+        StringBuilder text = new StringBuilder();
+        do {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        } while (text.length() < budget);
+        return message.put("message", text.toString().trim()).encode();
+    }
+}
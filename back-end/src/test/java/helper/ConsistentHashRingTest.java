@@ -0,0 +1,76 @@
+package helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTest {
+    private static final int ROOMS = 10_000;
+
+    @Test
+    void emptyRingHasNoOwner() {
+        assertNull(new ConsistentHashRing(64).owner("general"));
+    }
+
+    @Test
+    void updateReportsOnlyRealChanges() {
+        ConsistentHashRing ring = new ConsistentHashRing(64);
+
+        assertTrue(ring.update(List.of("a", "b")));
+        assertFalse(ring.update(List.of("b", "a")));
+        assertTrue(ring.update(List.of("a")));
+    }
+
+    @Test
+    void addedNodeTakesRoomsOnlyFromOthers() {
+        ConsistentHashRing ring = new ConsistentHashRing(64);
+        ring.update(List.of("a", "b", "c"));
+        Map<String, String> before = owners(ring);
+
+        ring.update(List.of("a", "b", "c", "d"));
+        Map<String, String> after = owners(ring);
+
+        int moved = 0;
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            if (!entry.getValue().equals(before.get(entry.getKey()))) {
+                assertEquals("d", entry.getValue(), "rooms move only to the new node");
+                moved++;
+            }
+        }
+        // в среднем четверть комнат, с запасом на неравномерность 64 виртуальных точек
+        assertTrue(moved > ROOMS / 8 && moved < ROOMS * 3 / 8, "moved " + moved);
+    }
+
+    @Test
+    void removedNodeGivesAwayOnlyItsRooms() {
+        ConsistentHashRing ring = new ConsistentHashRing(64);
+        ring.update(List.of("a", "b", "c", "d"));
+        Map<String, String> before = owners(ring);
+
+        ring.update(List.of("a", "b", "c"));
+        Map<String, String> after = owners(ring);
+
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (!entry.getValue().equals("d")) {
+                assertEquals(entry.getValue(), after.get(entry.getKey()));
+            } else {
+                assertFalse(after.get(entry.getKey()).equals("d"));
+            }
+        }
+    }
+
+    private static Map<String, String> owners(ConsistentHashRing ring) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < ROOMS; i++) {
+            owners.put("room" + i, ring.owner("room" + i));
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,52 @@
+package helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class OutboundFrameTest {
+    private static final ObjectMapper CBOR = new ObjectMapper(new CBORFactory());
+
+    @Test
+    void encodesEachFormatOnce() {
+        OutboundFrame frame = new OutboundFrame(new JsonObject().put("message", "hi").put("seq", 1).encode());
+
+        assertSame(frame.cbor(), frame.cbor());
+        assertEquals(new JsonObject(frame.json()), decode(frame.cbor().getBytes()));
+    }
+
+    @Test
+    void batchMatchesJsonEncoding() throws Exception {
+        List<OutboundFrame> messages = new ArrayList<>();
+        JsonArray expected = new JsonArray();
+        for (int i = 0; i < 300; i++) {
+            JsonObject message = new JsonObject().put("login", "user" + i).put("message", "текст " + i).put("seq", i);
+            messages.add(new OutboundFrame(message.encode()));
+            expected.add(message);
+        }
+        OutboundFrame batch = OutboundFrame.batch(messages);
+        JsonObject json = new JsonObject().put("event", "batch").put("messages", expected);
+
+        assertEquals(300, batch.messages());
+        assertEquals(json, new JsonObject(batch.json()));
+        assertEquals(json, decode(batch.cbor().getBytes()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JsonObject decode(byte[] cbor) {
+        try {
+            return new JsonObject(CBOR.readValue(cbor, Map.class));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostingListTest {
+    @Test
+    void readsPositionsNewestFirst() {
+        List<Long> positions = positions(1000, 1);
+        PostingList list = list(positions);
+
+        assertEquals(positions.size(), list.count());
+        assertEquals(reversed(positions), drain(list.cursor()));
+    }
+
+    @Test
+    void rejectsPositionsOutOfOrder() {
+        PostingList list = new PostingList();
+
+        list.add(5);
+        assertFalse(list.add(5));
+        assertFalse(list.add(3));
+        assertEquals(1, list.count());
+        assertEquals(-1, new PostingList().cursor().current());
+    }
+
+    @Test
+    void varintRoundTrip() throws IOException {
+        List<Long> positions = new ArrayList<>(List.of(0L, 127L, 128L, 16_511L, 16_512L, 1L << 35, (1L << 35) + 1, Long.MAX_VALUE - 1));
+        PostingList list = list(positions);
+
+        PostingList restored = PostingList.read(input(output(list::write)));
+
+        assertEquals(list.bytes(), restored.bytes());
+        assertEquals(reversed(positions), drain(restored.cursor()));
+    }
+
+    @Test
+    void changesContinueSavedPart() throws IOException {
+        List<Long> positions = positions(700, 2);
+        PostingList list = list(positions.subList(0, 300));
+        byte[] saved = output(list::writeChanges);
+        positions.subList(300, 700).forEach(list::add);
+        byte[] changes = output(list::writeChanges);
+
+        PostingList restored = PostingList.read(input(saved));
+        restored.append(input(changes));
+
+        assertEquals(reversed(positions), drain(restored.cursor()));
+        assertEquals(0, input(output(list::writeChanges)).readInt(), "changes are reported once");
+    }
+
+    @Test
+    void rejectsCorruptedList() throws IOException {
+        byte[] bytes = output(list(positions(10, 3))::write);
+        bytes[bytes.length - 1] ^= 0x01;
+
+        assertThrows(IOException.class, () -> PostingList.read(input(bytes)));
+    }
+
+    @Test
+    void advanceSkipsToPositionNotAbove() {
+        List<Long> positions = positions(5000, 4);
+        PostingList list = list(positions);
+        Random random = new Random(5);
+
+        for (int i = 0; i < 200; i++) {
+            long target = random.nextInt((int) (positions.get(positions.size() - 1) + 10));
+            assertEquals(floor(positions, target), list.cursor().advance(target), "target " + target);
+        }
+        PostingList.Cursor cursor = list.cursor();
+        long previous = Long.MAX_VALUE;
+        for (long target = positions.get(positions.size() - 1); target >= 0; target -= 1 + random.nextInt(300)) {
+            long position = cursor.advance(target);
+            assertEquals(floor(positions, target), position);
+            assertTrue(position <= previous);
+            previous = position;
+        }
+        assertEquals(-1, cursor.advance(positions.get(0) - 1));
+        assertEquals(-1, cursor.next());
+    }
+
+    private static List<Long> positions(int count, long seed) {
+        Random random = new Random(seed);
+        List<Long> positions = new ArrayList<>();
+        long position = random.nextInt(10);
+        for (int i = 0; i < count; i++) {
+            positions.add(position);
+            position += 1 + random.nextInt(i % 50 == 0 ? 100_000 : 20);
+        }
+        return positions;
+    }
+
+    private static PostingList list(List<Long> positions) {
+        PostingList list = new PostingList();
+        positions.forEach(list::add);
+        return list;
+    }
+
+    private static List<Long> drain(PostingList.Cursor cursor) {
+        List<Long> positions = new ArrayList<>();
+        for (long position = cursor.current(); position != -1; position = cursor.next()) {
+            positions.add(position);
+        }
+        return positions;
+    }
+
+    private static List<Long> reversed(List<Long> positions) {
+        List<Long> reversed = new ArrayList<>(positions);
+        Collections.reverse(reversed);
+        return reversed;
+    }
+
+    private static long floor(List<Long> positions, long target) {
+        long floor = -1;
+        for (long position : positions) {
+            if (position <= target) {
+                floor = position;
+            }
+        }
+        return floor;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] output(Writer writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writer.write(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
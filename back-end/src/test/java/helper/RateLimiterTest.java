@@ -0,0 +1,114 @@
+package helper;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RateLimiterTest {
+    private Vertx vertx;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    void allowsBurstThenRejects() {
+        RateLimiter limiter = limiter(new JsonObject().put("rate", 0.001).put("burst", 5), null);
+        AtomicLongArray connection = limiter.newConnectionState();
+
+        for (int i = 0; i < 5; i++) {
+            assertNull(limiter.tryAcquire(connection, null, WebSocketEvent.MESSAGE));
+        }
+        assertEquals(RateLimiter.CONNECTION, limiter.tryAcquire(connection, null, WebSocketEvent.MESSAGE));
+        assertNull(limiter.tryAcquire(connection, null, WebSocketEvent.JOIN), "other events have their own buckets");
+    }
+
+    @Test
+    void refillsAtConfiguredRate() throws InterruptedException {
+        RateLimiter limiter = limiter(new JsonObject().put("rate", 200).put("burst", 1), null);
+        AtomicLongArray connection = limiter.newConnectionState();
+
+        assertNull(limiter.tryAcquire(connection, null, WebSocketEvent.MESSAGE));
+        assertEquals(RateLimiter.CONNECTION, limiter.tryAcquire(connection, null, WebSocketEvent.MESSAGE));
+        Thread.sleep(20);
+        assertNull(limiter.tryAcquire(connection, null, WebSocketEvent.MESSAGE));
+    }
+
+    @Test
+    void userBudgetIsSharedAcrossConnections() {
+        RateLimiter limiter = limiter(new JsonObject().put("rate", 0.001).put("burst", 100),
+            new JsonObject().put("rate", 0.001).put("burst", 3));
+        AtomicLongArray first = limiter.newConnectionState();
+        AtomicLongArray second = limiter.newConnectionState();
+
+        assertNull(limiter.tryAcquire(first, "alice", WebSocketEvent.MESSAGE));
+        assertNull(limiter.tryAcquire(second, "alice", WebSocketEvent.MESSAGE));
+        assertNull(limiter.tryAcquire(first, "alice", WebSocketEvent.MESSAGE));
+        assertEquals(RateLimiter.USER, limiter.tryAcquire(second, "alice", WebSocketEvent.MESSAGE));
+        assertNull(limiter.tryAcquire(second, "bob", WebSocketEvent.MESSAGE));
+    }
+
+    @Test
+    void concurrentCallersNeverExceedBurst() throws Exception {
+        RateLimiter limiter = limiter(new JsonObject().put("rate", 0.001).put("burst", 1000), null);
+        AtomicLongArray connection = limiter.newConnectionState();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(() -> {
+                    int granted = 0;
+                    for (int i = 0; i < 10_000; i++) {
+                        if (limiter.tryAcquire(connection, null, WebSocketEvent.MESSAGE) == null) {
+                            granted++;
+                        }
+                    }
+                    return granted;
+                }));
+            }
+            int granted = 0;
+            for (Future<Integer> result : results) {
+                granted += result.get();
+            }
+            assertEquals(1000, granted);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void zeroRateIsUnlimited() {
+        RateLimiter limiter = limiter(new JsonObject().put("rate", 0).put("burst", 0), null);
+        AtomicLongArray connection = limiter.newConnectionState();
+
+        for (int i = 0; i < 10_000; i++) {
+            assertNull(limiter.tryAcquire(connection, null, WebSocketEvent.MESSAGE));
+        }
+    }
+
+    private RateLimiter limiter(JsonObject connection, JsonObject user) {
+        JsonObject message = new JsonObject().put(RateLimiter.CONNECTION, connection);
+        if (user != null) {
+            message.put(RateLimiter.USER, user);
+        }
+        return RateLimiter.shared(vertx, new JsonObject().put("events", new JsonObject().put("message", message)));
+    }
+}
@@ -0,0 +1,81 @@
+package helper;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static helper.ConstantHolder.ENTRIES;
+import static helper.ConstantHolder.OK;
+import static helper.ConstantHolder.REDIS_AUTH;
+import static helper.ConstantHolder.STATUS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RevocationFilterTest {
+    private Vertx vertx;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        vertx.eventBus().<JsonObject>consumer(REDIS_AUTH, message -> {
+            // ответ приходит с задержкой, чтобы отзыв успел прийти во время перестроения
+            vertx.setTimer(50, id -> {
+                loads.incrementAndGet();
+                message.reply(new JsonObject().put(STATUS, OK).put(ENTRIES, new JsonArray().add(RevokedTokens.userEntry("alice"))));
+            });
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    void oneFilterAndOneLoadPerNode() throws InterruptedException {
+        RevocationFilter first = RevocationFilter.shared(vertx, new JsonObject());
+        RevocationFilter second = RevocationFilter.shared(vertx, new JsonObject());
+        awaitLoaded(first);
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertTrue(second.mightContain(RevokedTokens.userEntry("alice")));
+        assertFalse(second.mightContain(RevokedTokens.userEntry("bob")));
+    }
+
+    @Test
+    void keepsEntriesRevokedDuringRebuild() throws InterruptedException {
+        RevocationFilter filter = RevocationFilter.shared(vertx, new JsonObject());
+        awaitLoaded(filter);
+
+        filter.rebuild();
+        filter.put(RevokedTokens.tokenEntry("jti"));
+        awaitLoads(2);
+
+        assertTrue(filter.mightContain(RevokedTokens.tokenEntry("jti")), "entries are not lost while the filter is rebuilt");
+    }
+
+    private void awaitLoaded(RevocationFilter filter) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (filter.mightContain(RevokedTokens.userEntry("bob")) && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitLoads(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (loads.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+    }
+}
@@ -0,0 +1,145 @@
+package helper;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Promise;
+import io.vertx.core.Verticle;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.http.WebSocketClient;
+import io.vertx.core.http.WebSocketClientOptions;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Время до последнего получателя при рассылке в большую комнату: обычный цикл writeTextMessage
+ * на одном экземпляре вертикла, {@link RoomFanout} на одном экземпляре и {@link RoomFanout} на нескольких.
+ * Части рассылки одного экземпляра идут по очереди на его event loop, так что с одним экземпляром
+ * нарезка не быстрее цикла, параллельно работают только разные экземпляры со своими сокетами
+ */
+@Tag("benchmark")
+class RoomFanoutBenchmark {
+    private static final String ROOM = "bench";
+    private static final int PORT = 18_090;
+    private static final int MEMBERS = 2000;
+    private static final int WARMUP = 50;
+    private static final int ROUNDS = 300;
+
+    @Test
+    void lastRecipientVersusSerialLoop() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d members, %d cores%n", MEMBERS, cores);
+        System.out.printf("%-22s %12s %12s%n", "mode", "median us", "p99 us");
+        run("serial loop, 1", SerialRoom::new, 1);
+        run("RoomFanout, 1", FanoutRoom::new, 1);
+        run("RoomFanout, " + Math.max(2, cores), FanoutRoom::new, Math.max(2, cores));
+    }
+
+    private static void run(String name, Supplier<Verticle> room, int instances) throws Exception {
+        Vertx server = Vertx.vertx();
+        Vertx client = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(4));
+        try {
+            server.deployVerticle(room, new DeploymentOptions().setInstances(instances))
+                .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+            AtomicInteger received = new AtomicInteger();
+            AtomicReference<CompletableFuture<Long>> round = new AtomicReference<>(new CompletableFuture<>());
+            WebSocketClient ws = client.createWebSocketClient(new WebSocketClientOptions().setMaxConnections(MEMBERS));
+            List<CompletableFuture<?>> connected = new ArrayList<>();
+            for (int i = 0; i < MEMBERS; i++) {
+                connected.add(ws.connect(PORT, "localhost", "/").onSuccess(socket -> socket.textMessageHandler(text -> {
+                    if (received.incrementAndGet() == MEMBERS) {
+                        round.get().complete(System.nanoTime());
+                    }
+                })).toCompletionStage().toCompletableFuture());
+            }
+            CompletableFuture.allOf(connected.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+            // сокеты входят в комнату в обработчике на сервере, ждём, пока первая рассылка дойдёт до всех
+            while (deliver(server, received, round, "probe") < 0) {
+                Thread.sleep(100);
+            }
+
+            long[] micros = new long[ROUNDS];
+            for (int i = 0; i < WARMUP + ROUNDS; i++) {
+                long elapsed = deliver(server, received, round, "{\"room\":\"bench\",\"login\":\"alice\",\"message\":\"round " + i + "\"}");
+                assertEquals(MEMBERS, received.get(), name + ": not every member got the message");
+                if (i >= WARMUP) {
+                    micros[i - WARMUP] = elapsed / 1000;
+                }
+            }
+            Arrays.sort(micros);
+            System.out.printf("%-22s %12d %12d%n", name, micros[ROUNDS / 2], micros[(int) Math.ceil(ROUNDS * 0.99) - 1]);
+        } finally {
+            client.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+            server.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Одна публикация в комнату
+     * @return наносекунды от публикации до последнего получателя или -1, если за секунду дошло не всем
+     */
+    private static long deliver(Vertx server, AtomicInteger received, AtomicReference<CompletableFuture<Long>> round, String json) throws Exception {
+        received.set(0);
+        CompletableFuture<Long> done = new CompletableFuture<>();
+        round.set(done);
+        long started = System.nanoTime();
+        server.eventBus().publish("room." + ROOM, json);
+        try {
+            return done.get(1, TimeUnit.SECONDS) - started;
+        } catch (TimeoutException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Рассылка через {@link RoomFanout}, как в WebSocketVerticle
+     */
+    public static class FanoutRoom extends AbstractVerticle {
+        @Override
+        public void start(Promise<Void> startPromise) {
+            RoomFanout fanout = new RoomFanout(vertx, context, new JsonObject(), (ws, frame) -> ws.writeTextMessage(frame.json()));
+            HttpServer http = vertx.createHttpServer().webSocketHandler(ws -> {
+                fanout.join(ROOM, ws);
+                ws.closeHandler(v -> fanout.leave(ws));
+            });
+            http.listen(PORT).<Void>mapEmpty().onComplete(startPromise);
+        }
+    }
+
+    /**
+     * Один consumer комнаты и цикл по всем сокетам экземпляра
+     */
+    public static class SerialRoom extends AbstractVerticle {
+        private final List<ServerWebSocket> members = new ArrayList<>();
+
+        @Override
+        public void start(Promise<Void> startPromise) {
+            vertx.eventBus().<String>consumer("room." + ROOM, message -> {
+                for (ServerWebSocket ws : members) {
+                    ws.writeTextMessage(message.body());
+                }
+            });
+            HttpServer http = vertx.createHttpServer().webSocketHandler(ws -> {
+                members.add(ws);
+                ws.closeHandler(v -> members.remove(ws));
+            });
+            http.listen(PORT).<Void>mapEmpty().onComplete(startPromise);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RoomSearchIndexTest {
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    @Test
+    void findsMessagesWithAllTermsNewestFirst() {
+        RoomSearchIndex index = new RoomSearchIndex();
+        index.offer(0, "Релиз сегодня");
+        index.offer(1, "сборка упала");
+        index.offer(2, "релиз перенесли, сборка упала снова");
+        index.offer(3, "релиз: сборка зелёная");
+
+        assertEquals(List.of(3L, 2L), index.search("сборка РЕЛИЗ", 10, NO_DEADLINE).positions());
+        assertEquals(List.of(3L), index.search("релиз сборка", 1, NO_DEADLINE).positions());
+        assertTrue(index.search("релиз отпуск", 10, NO_DEADLINE).positions().isEmpty());
+        assertTrue(index.search("a", 10, NO_DEADLINE).positions().isEmpty(), "one-letter terms are not indexed");
+    }
+
+    @Test
+    void limitReturnsNewestMatches() {
+        RoomSearchIndex index = new RoomSearchIndex();
+        for (int i = 0; i < 10_000; i++) {
+            index.offer(i, "hello world " + i);
+        }
+
+        RoomSearchIndex.Result result = index.search("hello world", 3, NO_DEADLINE);
+
+        assertEquals(List.of(9999L, 9998L, 9997L), result.positions());
+        assertFalse(result.truncated());
+    }
+
+    @Test
+    void deadlineTruncatesWithNewestFoundSoFar() {
+        RoomSearchIndex index = new RoomSearchIndex();
+        for (int i = 0; i < 100_000; i++) {
+            index.offer(i, i % 2 == 0 ? "even" : "odd" + (i % 3000 == 1 ? " even" : ""));
+        }
+
+        RoomSearchIndex.Result complete = index.search("odd even", 100, NO_DEADLINE);
+        RoomSearchIndex.Result truncated = index.search("odd even", 100, System.nanoTime() - 1);
+
+        assertFalse(complete.truncated());
+        assertEquals(34, complete.positions().size());
+        assertTrue(truncated.truncated());
+        assertTrue(truncated.positions().size() < complete.positions().size());
+        assertEquals(complete.positions().subList(0, truncated.positions().size()), truncated.positions());
+    }
+
+    @Test
+    void waitsForMissingPositions() {
+        RoomSearchIndex index = new RoomSearchIndex();
+        index.offer(1, "second message");
+        assertEquals(0, index.indexedUpTo());
+
+        index.offer(0, "first message");
+        index.offer(1, "second message");
+
+        assertEquals(2, index.indexedUpTo());
+        assertEquals(List.of(1L, 0L), index.search("message", 10, NO_DEADLINE).positions());
+    }
+
+    @Test
+    void changesRestoreTheSameIndex() throws IOException {
+        RoomSearchIndex index = new RoomSearchIndex();
+        RoomSearchIndex copy = new RoomSearchIndex();
+        for (int i = 0; i < 500; i++) {
+            index.offer(i, "message " + (i % 7 == 0 ? "seven " : "") + i);
+            if (i % 150 == 0) {
+                assertTrue(copy.apply(input(index.changes())));
+            }
+        }
+        byte[] last = index.changes();
+        assertFalse(index.hasChanges());
+
+        assertTrue(copy.apply(input(last)));
+        assertTrue(copy.apply(input(last)), "already applied changes are skipped");
+        RoomSearchIndex restored = RoomSearchIndex.restore(input(copy.snapshot()));
+
+        assertEquals(500, restored.indexedUpTo());
+        assertEquals(index.search("message seven", 100, NO_DEADLINE), restored.search("message seven", 100, NO_DEADLINE));
+    }
+
+    @Test
+    void rejectsChangesWithGap() throws IOException {
+        RoomSearchIndex index = new RoomSearchIndex();
+        index.offer(0, "first");
+        index.changes();
+        index.offer(1, "second");
+
+        assertFalse(new RoomSearchIndex().apply(input(index.changes())));
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,89 @@
+package helper;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentedHistoryStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void emptyRoomEndsAtZero() {
+        SegmentedHistoryStore store = store(1024);
+
+        assertEquals(0, store.end("general"));
+        assertTrue(store.read("general", 0, 10).isEmpty());
+    }
+
+    @Test
+    void readsAnyRangeAcrossBlocksAndSegments() {
+        SegmentedHistoryStore store = store(512);
+        List<String> all = messages(0, 500);
+        for (int from = 0; from < all.size(); from += 70) {
+            store.append("general", from, all.subList(from, Math.min(all.size(), from + 70)));
+        }
+
+        assertEquals(500, store.end("general"));
+        assertEquals(all, store.read("general", 0, 500));
+        assertEquals(all.subList(123, 377), store.read("general", 123, 377));
+        assertEquals(all.subList(499, 500), store.read("general", 499, 600));
+        assertTrue(store.read("general", 500, 600).isEmpty());
+    }
+
+    @Test
+    void rejectsAppendOutsideTheEnd() {
+        SegmentedHistoryStore store = store(1024);
+        store.append("general", 0, messages(0, 10));
+
+        assertThrows(IllegalStateException.class, () -> store.append("general", 5, messages(5, 10)));
+        assertThrows(IllegalStateException.class, () -> store.append("general", 11, messages(11, 12)));
+    }
+
+    @Test
+    void seesSegmentsWrittenByAnotherStore() {
+        SegmentedHistoryStore reader = store(256);
+        SegmentedHistoryStore writer = store(256);
+        writer.append("general", 0, messages(0, 100));
+        assertEquals(100, reader.end("general"));
+
+        writer.append("general", 100, messages(100, 200));
+        writer.append("general", 200, messages(200, 300));
+
+        assertEquals(300, reader.end("general"));
+        assertEquals(messages(150, 300), reader.read("general", 150, 300));
+    }
+
+    @Test
+    void keepsRoomsApart() {
+        SegmentedHistoryStore store = store(1024);
+        store.append("general", 0, messages(0, 3));
+        store.append("комната", 0, List.of("привет"));
+
+        assertEquals(3, store.end("general"));
+        assertEquals(List.of("привет"), store.read("комната", 0, 1));
+    }
+
+    private SegmentedHistoryStore store(long segmentBytes) {
+        return new SegmentedHistoryStore(new JsonObject()
+            .put("directory", directory.toString())
+            .put("blockMessages", 16)
+            .put("segmentBytes", segmentBytes));
+    }
+
+    private static List<String> messages(int from, int to) {
+        List<String> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            messages.add(new JsonObject().put("login", "user" + i % 7).put("message", "сообщение " + i).put("seq", i + 1).encode());
+        }
+        return messages;
+    }
+}
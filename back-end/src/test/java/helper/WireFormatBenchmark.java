@@ -0,0 +1,72 @@
+package helper;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сравнение JSON и CBOR на типичных событиях чата: размер кадра и время кодирования
+ */
+@Tag("benchmark")
+class WireFormatBenchmark {
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    @Test
+    void jsonVersusCbor() {
+        compare("message", new JsonObject()
+            .put("room", "general")
+            .put("login", "alice")
+            .put("message", "Привет, как дела? Встречаемся в 19:00 у входа")
+            .put("date", "2024-05-17T18:42:11.512Z")
+            .put("seq", 1_234_567));
+
+        List<JsonObject> page = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            page.add(new JsonObject()
+                .put("room", "general")
+                .put("login", "user" + i)
+                .put("message", "message number " + i)
+                .put("date", "2024-05-17T18:42:11.512Z")
+                .put("seq", 1000 + i));
+        }
+        compare("messages page", new JsonObject().put("event", "messages").put("messages", new JsonArray(page)));
+
+        JsonArray users = new JsonArray();
+        for (int i = 0; i < 500; i++) {
+            users.add("user" + i);
+        }
+        compare("online users", new JsonObject().put("event", "onlineUsers").put("onlineUsers", users));
+    }
+
+    private static void compare(String name, JsonObject event) {
+        int jsonSize = WireFormat.JSON.encode(event).length();
+        int cborSize = WireFormat.CBOR.encode(event).length();
+        double jsonNanos = measure(() -> WireFormat.JSON.encode(event));
+        double cborNanos = measure(() -> WireFormat.CBOR.encode(event));
+        System.out.printf("%-14s json %6d B %9.0f ns | cbor %6d B %9.0f ns%n", name, jsonSize, jsonNanos, cborSize, cborNanos);
+        assertTrue(cborSize <= jsonSize, name + ": CBOR frame is larger than JSON");
+    }
+
+    private static double measure(Supplier<Buffer> encode) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += encode.get().length();
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += encode.get().length();
+        }
+        double nanos = (double) (System.nanoTime() - started) / ITERATIONS;
+        assertTrue(sink > 0);
+        return nanos;
+    }
+}
@@ -0,0 +1,291 @@
+package verticle;
+
+import helper.AuthEvent;
+import helper.MessageSequence;
+import helper.RedisActionEvent;
+import helper.SearchEvent;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.ThreadingModel;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static helper.ConstantHolder.ACTION;
+import static helper.ConstantHolder.LOGIN;
+import static helper.ConstantHolder.MESSAGE;
+import static helper.ConstantHolder.OK;
+import static helper.ConstantHolder.PASSWORD;
+import static helper.ConstantHolder.REDIS_ACTION;
+import static helper.ConstantHolder.ROOM;
+import static helper.ConstantHolder.STATUS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Вход и публикация через настоящие JwtAuthVerticle и RedisVerticle на event loop и на виртуальных потоках:
+ * пропускная способность, медиана и p99 задержки при IN_FLIGHT одновременных запросах.
+ * Вместо Редиса заглушка протокола RESP в том же процессе, она отвечает сразу, так что в замер попадает
+ * работа вертиклов и шины, а не сеть до Редиса. Виртуальные потоки нужны Java 21, на Java 17 (образ Docker)
+ * замеряется только event loop: JAVA_HOME=<jdk 21> gradle benchmark --tests verticle.ThreadingModelBenchmark
+ */
+@Tag("benchmark")
+class ThreadingModelBenchmark {
+    private static final int USERS = 100;
+    private static final int WARMUP = 20_000;
+    private static final int REQUESTS = 100_000;
+    private static final int IN_FLIGHT = 256;
+
+    @Test
+    void loginAndPublish() throws Exception {
+        System.out.printf("%-15s %-8s %10s %10s %10s%n", "model", "handler", "req/s", "median us", "p99 us");
+        for (ThreadingModel model : new ThreadingModel[]{ThreadingModel.EVENT_LOOP, ThreadingModel.VIRTUAL_THREAD}) {
+            if (model == ThreadingModel.VIRTUAL_THREAD && Runtime.version().feature() < 21) {
+                System.out.printf("%-15s skipped, virtual threads need Java 21%n", model);
+                continue;
+            }
+            Vertx vertx = Vertx.vertx();
+            try {
+                int port = FakeRedis.start(vertx);
+                DeploymentOptions options = new DeploymentOptions().setThreadingModel(model);
+                vertx.deployVerticle(RedisVerticle::new, new DeploymentOptions(options)
+                        .setConfig(new JsonObject().put("connectionString", "redis://localhost:" + port)))
+                    .compose(id -> vertx.deployVerticle(JwtAuthVerticle::new, options))
+                    .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+                for (int i = 0; i < USERS; i++) {
+                    JsonObject reply = vertx.eventBus().<JsonObject>request(AuthEvent.REGISTER.getValue(), credentials(i))
+                        .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS).body();
+                    assertEquals(OK, reply.getString(STATUS));
+                }
+
+                Scenario login = (id, done) -> vertx.eventBus().<JsonObject>request(AuthEvent.AUTHENTICATE.getValue(), credentials(id % USERS))
+                    .onComplete(reply -> done.accept(id, reply.succeeded() && OK.equals(reply.result().body().getString(STATUS))));
+                report(model, "login", vertx, login);
+
+                // публикация ответа не шлёт, её окончание видно по сообщению в поисковый индекс сразу после записи в историю
+                Map<Integer, BiConsumer<Integer, Boolean>> publishing = new ConcurrentHashMap<>();
+                vertx.eventBus().<JsonObject>consumer(SearchEvent.INDEX.getValue(), indexed -> {
+                    int id = Integer.parseInt(new JsonObject(indexed.body().getString(MESSAGE)).getString(MESSAGE));
+                    BiConsumer<Integer, Boolean> done = publishing.remove(id);
+                    if (done != null) {
+                        done.accept(id, true);
+                    }
+                });
+                Scenario publish = (id, done) -> {
+                    publishing.put(id, done);
+                    vertx.eventBus().send(REDIS_ACTION, new JsonObject()
+                        .put(ACTION, RedisActionEvent.PUBLISH.getValue())
+                        .put(ROOM, "room" + id % 10)
+                        .put(MESSAGE, new JsonObject().put(ROOM, "room" + id % 10).put(LOGIN, "user" + id % USERS)
+                            .put(MESSAGE, String.valueOf(id)).encode()));
+                };
+                report(model, "publish", vertx, publish);
+            } finally {
+                // сначала вертиклы, пока заглушка ещё принимает их последние команды
+                Future.join(vertx.deploymentIDs().stream().map(vertx::undeploy).toList())
+                    .eventually(() -> vertx.close())
+                    .toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private static JsonObject credentials(int user) {
+        return new JsonObject().put(LOGIN, "user" + user).put(PASSWORD, "secret" + user);
+    }
+
+    /**
+     * Запрос номер id, по окончании вызывает done с признаком успеха
+     */
+    private interface Scenario {
+        void start(int id, BiConsumer<Integer, Boolean> done);
+    }
+
+    private static void report(ThreadingModel model, String name, Vertx vertx, Scenario scenario) throws Exception {
+        run(vertx, scenario, WARMUP);
+        long started = System.nanoTime();
+        long[] latencies = run(vertx, scenario, REQUESTS);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        Arrays.sort(latencies);
+        System.out.printf("%-15s %-8s %10.0f %10d %10d%n", model, name, REQUESTS / seconds,
+            latencies[REQUESTS / 2] / 1000, latencies[(int) Math.ceil(REQUESTS * 0.99) - 1] / 1000);
+    }
+
+    /**
+     * Отправка запросов окном по IN_FLIGHT штук
+     * @return задержка каждого запроса в наносекундах
+     */
+    private static long[] run(Vertx vertx, Scenario scenario, int requests) throws Exception {
+        long[] latencies = new long[requests];
+        long[] sentAt = new long[requests];
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger answered = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<BiConsumer<Integer, Boolean>> next = new AtomicReference<>();
+        Runnable send = () -> {
+            int id = sent.getAndIncrement();
+            if (id < requests) {
+                sentAt[id] = System.nanoTime();
+                scenario.start(id, next.get());
+            }
+        };
+        next.set((id, ok) -> {
+            latencies[id] = System.nanoTime() - sentAt[id];
+            if (!ok) {
+                failed.incrementAndGet();
+            }
+            if (answered.incrementAndGet() == requests) {
+                done.complete(null);
+            } else {
+                send.run();
+            }
+        });
+        vertx.runOnContext(v -> {
+            for (int i = 0; i < IN_FLIGHT; i++) {
+                send.run();
+            }
+        });
+        done.get(120, TimeUnit.SECONDS);
+        assertEquals(0, failed.get());
+        return latencies;
+    }
+
+    /**
+     * Заглушка Редиса: команды регистрации и входа, запись сообщения скриптом MessageSequence.APPEND_SCRIPT
+     * и подписка. Список отзывов и остальные скрипты отвечают пустым списком, прочие команды OK
+     */
+    private static final class FakeRedis {
+        private final Map<String, String> hashes;
+        private final Map<String, Long> counters;
+        private final NetSocket socket;
+        private Buffer pending = Buffer.buffer();
+
+        private FakeRedis(NetSocket socket, Map<String, String> hashes, Map<String, Long> counters) {
+            this.socket = socket;
+            this.hashes = hashes;
+            this.counters = counters;
+        }
+
+        /**
+         * Запуск на свободном порту, данные общие для всех соединений
+         * @return порт
+         */
+        static int start(Vertx vertx) throws Exception {
+            Map<String, String> hashes = new ConcurrentHashMap<>();
+            Map<String, Long> counters = new ConcurrentHashMap<>();
+            NetServer server = vertx.createNetServer().connectHandler(socket -> {
+                FakeRedis connection = new FakeRedis(socket, hashes, counters);
+                socket.handler(connection::receive);
+            });
+            return server.listen(0).toCompletionStage().toCompletableFuture().get(10, TimeUnit.SECONDS).actualPort();
+        }
+
+        private void receive(Buffer data) {
+            pending.appendBuffer(data);
+            int offset = 0;
+            while (true) {
+                int[] end = {offset};
+                List<String> command = parse(pending, end);
+                if (command == null) {
+                    break;
+                }
+                offset = end[0];
+                execute(command);
+            }
+            pending = pending.getBuffer(offset, pending.length());
+        }
+
+        /**
+         * Разбор одной команды вида *N $len arg ...
+         * @param position начало команды, после разбора конец
+         * @return аргументы или null, если команда пришла не целиком
+         */
+        private static List<String> parse(Buffer buffer, int[] position) {
+            int offset = position[0];
+            int line = lineEnd(buffer, offset);
+            if (line < 0) {
+                return null;
+            }
+            int count = Integer.parseInt(buffer.getString(offset + 1, line));
+            offset = line + 2;
+            List<String> args = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                line = lineEnd(buffer, offset);
+                if (line < 0) {
+                    return null;
+                }
+                int length = Integer.parseInt(buffer.getString(offset + 1, line));
+                offset = line + 2;
+                if (offset + length + 2 > buffer.length()) {
+                    return null;
+                }
+                args.add(buffer.getString(offset, offset + length, StandardCharsets.UTF_8.name()));
+                offset += length + 2;
+            }
+            position[0] = offset;
+            return args;
+        }
+
+        private static int lineEnd(Buffer buffer, int from) {
+            for (int i = from; i + 1 < buffer.length(); i++) {
+                if (buffer.getByte(i) == '\r' && buffer.getByte(i + 1) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void execute(List<String> command) {
+            switch (command.get(0).toUpperCase()) {
+                case "HELLO" -> socket.write("-ERR unknown command 'HELLO'\r\n");
+                case "PING" -> socket.write("+PONG\r\n");
+                case "HEXISTS" -> socket.write(":" + (hashes.containsKey(command.get(1)) ? 1 : 0) + "\r\n");
+                case "HSET" -> {
+                    hashes.put(command.get(1), command.get(3));
+                    socket.write(":1\r\n");
+                }
+                case "HGET" -> socket.write(bulk(hashes.get(command.get(1))));
+                case "SUBSCRIBE" -> {
+                    for (int i = 1; i < command.size(); i++) {
+                        socket.write("*3\r\n" + bulk("subscribe") + bulk(command.get(i)) + ":" + i + "\r\n");
+                    }
+                }
+                case "ZRANGEBYSCORE" -> socket.write("*0\r\n");
+                case "EVAL" -> socket.write(MessageSequence.APPEND_SCRIPT.equals(command.get(1)) ? append(command) : "*0\r\n");
+                default -> socket.write("+OK\r\n");
+            }
+        }
+
+        /**
+         * То же, что APPEND_SCRIPT: номер дописывается в сообщение, в ответе сообщение и его позиция
+         */
+        private String append(List<String> command) {
+            long seq = counters.merge(command.get(4), 1L, Long::sum);
+            long length = counters.merge(command.get(3), 1L, Long::sum);
+            String message = command.get(7);
+            return "*2\r\n" + bulk(message.substring(0, message.length() - 1) + ",\"seq\":" + seq + "}") + ":" + (length - 1) + "\r\n";
+        }
+
+        private static String bulk(String value) {
+            if (value == null) {
+                return "$-1\r\n";
+            }
+            return "$" + value.getBytes(StandardCharsets.UTF_8).length + "\r\n" + value + "\r\n";
+        }
+    }
+}
@@ -35,7 +35,13 @@ export class ChatService {
   getMessage(): Observable<{ login: string, room: string, message: string }> {
     return new Observable(observer => {
       this.socket$.subscribe({
-        next: (msg) => observer.next(msg),
+        next: (msg) => {
+          if (msg.event === 'batch') {
+            msg.messages.forEach((message: any) => observer.next(message));
+          } else {
+            observer.next(msg);
+          }
+        },
         error: (err) => observer.error(err),
         complete: () => observer.complete()
       });